@@ -0,0 +1,62 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Build time tool that bakes bundled PDF pages into {@link MeshFile}s, using the same decoder and
+ * tessellation as the app. Run by the bake tasks in app/build.gradle with the app's compiled
+ * classes on the class path.
+ *
+ * Usage: MeshBaker outputDirectory page.pdf...
+ */
+public class MeshBaker {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: MeshBaker outputDirectory page.pdf...");
+            System.exit(1);
+        }
+
+        File outputDirectory = new File(args[0], MeshFile.ASSET_DIRECTORY);
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Could not create " + outputDirectory);
+        }
+
+        for (int i = 1; i < args.length; i++) {
+            File pdf = new File(args[i]);
+            String name = pdf.getName();
+            int extension = name.lastIndexOf('.');
+            if (extension > 0) name = name.substring(0, extension);
+
+            StrokeData strokes = StrokeDecoder.decodePage(PdfDocument.open(pdf), 0);
+            File output = new File(outputDirectory, name + MeshFile.EXTENSION);
+            MeshFile.write(output, StrokeMeshBuilder.tessellate(strokes));
+            System.out.println("Baked " + strokes.count + " segments from " + pdf + " to "
+                    + output);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.util.Random;
+
+/**
+ * Build time benchmark of the tessellation of a dense page. Times the whole of
+ * {@link StrokeMeshBuilder#tessellate}, and the batch kernel that computes the geometry of the
+ * segments against the per segment loop it replaced. Run by the benchmark tasks in
+ * app/build.gradle with the app's compiled classes on the class path.
+ *
+ * Usage: TessellationBenchmark [segments]
+ */
+public class TessellationBenchmark {
+
+    private static final int SEGMENTS_PER_STROKE = 100;
+    private static final int BATCH_SEGMENTS = 512;
+    private static final int WARMUP_RUNS = 30;
+    private static final int TIMED_RUNS = 30;
+
+    // Keeps the results alive, so the timed loops can not be optimized away.
+    private static float sSink;
+
+    public static void main(String[] args) {
+        int segments = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        StrokeData strokes = randomWalk(segments, new Random(1));
+
+        System.out.println("Tessellating " + strokes.count + " segments, best of " + TIMED_RUNS
+                + " runs after " + WARMUP_RUNS + " warm up runs");
+        System.out.println("  tessellate:         " + formatMillis(timeTessellate(strokes)));
+        System.out.println("  per segment loop:   " + formatMillis(timeGeometry(strokes, false)));
+        System.out.println("  computeSegments:    " + formatMillis(timeGeometry(strokes, true)));
+    }
+
+    /**
+     * Strokes that wander across the page in short connected segments, like handwriting.
+     */
+    private static StrokeData randomWalk(int segments, Random random) {
+        StrokeData strokes = new StrokeData(segments);
+        while (strokes.count < segments) {
+            float x = random.nextFloat() * StrokeData.PAGE_WIDTH;
+            float y = random.nextFloat() * StrokeData.PAGE_HEIGHT;
+            float angle = 0;
+            int count = Math.min(SEGMENTS_PER_STROKE, segments - strokes.count);
+            for (int i = 0; i < count; i++) {
+                angle += random.nextGaussian() * 0.3;
+                float nextX = x + (float) Math.cos(angle) * 20;
+                float nextY = y + (float) Math.sin(angle) * 20;
+                strokes.add(x, y, nextX, nextY, 20 + random.nextFloat() * 60);
+                x = nextX;
+                y = nextY;
+            }
+        }
+        return strokes;
+    }
+
+    private static long timeTessellate(StrokeData strokes) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+            long start = System.nanoTime();
+            PageMesh mesh = StrokeMeshBuilder.tessellate(strokes);
+            long time = System.nanoTime() - start;
+            sSink += mesh.getIndexCount();
+            if (run >= WARMUP_RUNS) best = Math.min(best, time);
+        }
+        return best;
+    }
+
+    private static long timeGeometry(StrokeData strokes, boolean batched) {
+        float[] x1 = new float[BATCH_SEGMENTS];
+        float[] y1 = new float[BATCH_SEGMENTS];
+        float[] x2 = new float[BATCH_SEGMENTS];
+        float[] y2 = new float[BATCH_SEGMENTS];
+        float[] normalX = new float[BATCH_SEGMENTS];
+        float[] normalY = new float[BATCH_SEGMENTS];
+        float[] halfWidth = new float[BATCH_SEGMENTS];
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < WARMUP_RUNS + TIMED_RUNS; run++) {
+            long start = System.nanoTime();
+            float sum = 0;
+            for (int first = 0; first < strokes.count; first += BATCH_SEGMENTS) {
+                int count = Math.min(BATCH_SEGMENTS, strokes.count - first);
+                if (batched) {
+                    StrokeMeshBuilder.computeSegments(strokes, first, count, x1, y1, x2, y2,
+                            normalX, normalY, halfWidth);
+                } else {
+                    computeSegmentsPerSegment(strokes, first, count, x1, y1, x2, y2, normalX,
+                            normalY, halfWidth);
+                }
+                sum += normalX[count - 1] + halfWidth[count - 1];
+            }
+            long time = System.nanoTime() - start;
+            sSink += sum;
+            if (run >= WARMUP_RUNS) best = Math.min(best, time);
+        }
+        return best;
+    }
+
+    /**
+     * The geometry as it was computed before computeSegments, one segment at a time with a
+     * division per coordinate and segments without length skipped.
+     */
+    private static void computeSegmentsPerSegment(StrokeData strokes, int first, int count,
+                                                  float[] x1, float[] y1, float[] x2,
+                                                  float[] y2, float[] normalX, float[] normalY,
+                                                  float[] halfWidth) {
+        for (int j = 0; j < count; j++) {
+            int i = first + j;
+            x1[j] = (strokes.x1[i] / StrokeData.PAGE_WIDTH * 2) - 1;
+            y1[j] = (strokes.y1[i] / StrokeData.PAGE_HEIGHT * 2) - 1;
+            x2[j] = (strokes.x2[i] / StrokeData.PAGE_WIDTH * 2) - 1;
+            y2[j] = (strokes.y2[i] / StrokeData.PAGE_HEIGHT * 2) - 1;
+            float dx = x2[j] - x1[j];
+            float dy = y2[j] - y1[j];
+            float lengthSquared = dx * dx + dy * dy;
+            if (lengthSquared == 0) continue;
+
+            float inverseLength = (float) (1 / Math.sqrt(lengthSquared));
+            normalX[j] = -dy * inverseLength;
+            normalY[j] = dx * inverseLength;
+            float width = strokes.width[i] * PageMesh.STROKE_WIDTH_SCALE;
+            width = width < PageMesh.MIN_STROKE_WIDTH ? PageMesh.MIN_STROKE_WIDTH : width;
+            halfWidth[j] = width / 2;
+        }
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format("%.2f ms", nanos / 1e6);
+    }
+}
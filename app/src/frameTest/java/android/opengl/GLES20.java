@@ -0,0 +1,212 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+
+package android.opengl;
+
+import java.nio.Buffer;
+
+/**
+ * Stands in for the GL bindings when the frame loop runs on the JVM, see
+ * FrameLoopAllocationTest. Calls do nothing except count draws, objects get increasing names, and
+ * every program reports all attributes and uniforms of the app's shaders as active. Like the real
+ * bindings, nothing here allocates.
+ */
+public class GLES20 {
+
+    public static final int GL_TRIANGLES = 0x0004;
+    public static final int GL_TRIANGLE_STRIP = 0x0005;
+    public static final int GL_EXTENSIONS = 0x1F03;
+    public static final int GL_SHORT = 0x1402;
+    public static final int GL_UNSIGNED_SHORT = 0x1403;
+    public static final int GL_UNSIGNED_INT = 0x1405;
+    public static final int GL_FLOAT = 0x1406;
+    public static final int GL_ARRAY_BUFFER = 0x8892;
+    public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    public static final int GL_STATIC_DRAW = 0x88E4;
+    public static final int GL_LINK_STATUS = 0x8B82;
+    public static final int GL_ACTIVE_UNIFORMS = 0x8B86;
+    public static final int GL_ACTIVE_UNIFORM_MAX_LENGTH = 0x8B87;
+    public static final int GL_ACTIVE_ATTRIBUTES = 0x8B89;
+    public static final int GL_ACTIVE_ATTRIBUTE_MAX_LENGTH = 0x8B8A;
+
+    private static final String[] ATTRIBUTES = {
+            "a_Position", "a_Normal", "a_Color", "a_Segment", "a_Corner", "a_Page", "a_Order"};
+    private static final String[] UNIFORMS = {
+            "u_MVP", "u_MVMatrix", "u_Model", "u_Models[0]", "u_View", "u_Projection",
+            "u_LightPos", "u_IsFloor", "u_Dequantization", "u_WidthScale", "u_MinWidth",
+            "u_Reveal"};
+
+    private static int sNextName = 1;
+    private static int sDrawCalls;
+
+    /**
+     * Returns the number of draw calls made so far.
+     */
+    public static int getDrawCalls() {
+        return sDrawCalls;
+    }
+
+    public static int glCreateProgram() {
+        return sNextName++;
+    }
+
+    public static void glAttachShader(int program, int shader) {
+    }
+
+    public static void glLinkProgram(int program) {
+    }
+
+    public static void glDeleteProgram(int program) {
+    }
+
+    public static String glGetProgramInfoLog(int program) {
+        return "";
+    }
+
+    public static void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        switch (pname) {
+            case GL_LINK_STATUS:
+                params[offset] = 1;
+                break;
+            case GL_ACTIVE_ATTRIBUTES:
+                params[offset] = ATTRIBUTES.length;
+                break;
+            case GL_ACTIVE_UNIFORMS:
+                params[offset] = UNIFORMS.length;
+                break;
+            case GL_ACTIVE_ATTRIBUTE_MAX_LENGTH:
+            case GL_ACTIVE_UNIFORM_MAX_LENGTH:
+                params[offset] = 32;
+                break;
+            default:
+                params[offset] = 0;
+        }
+    }
+
+    public static void glGetActiveAttrib(int program, int index, int bufsize, int[] length,
+                                         int lengthOffset, int[] size, int sizeOffset, int[] type,
+                                         int typeOffset, byte[] name, int nameOffset) {
+        getName(ATTRIBUTES[index], length, lengthOffset, size, sizeOffset, name, nameOffset);
+    }
+
+    public static void glGetActiveUniform(int program, int index, int bufsize, int[] length,
+                                          int lengthOffset, int[] size, int sizeOffset,
+                                          int[] type, int typeOffset, byte[] name,
+                                          int nameOffset) {
+        getName(UNIFORMS[index], length, lengthOffset, size, sizeOffset, name, nameOffset);
+    }
+
+    private static void getName(String value, int[] length, int lengthOffset, int[] size,
+                                int sizeOffset, byte[] name, int nameOffset) {
+        for (int i = 0; i < value.length(); i++) {
+            name[nameOffset + i] = (byte) value.charAt(i);
+        }
+        length[lengthOffset] = value.length();
+        size[sizeOffset] = 1;
+    }
+
+    public static int glGetAttribLocation(int program, String name) {
+        return indexOf(ATTRIBUTES, name);
+    }
+
+    public static int glGetUniformLocation(int program, String name) {
+        return indexOf(UNIFORMS, name);
+    }
+
+    private static int indexOf(String[] names, String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    public static void glUseProgram(int program) {
+    }
+
+    public static String glGetString(int name) {
+        return "";
+    }
+
+    public static void glGenBuffers(int n, int[] buffers, int offset) {
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = sNextName++;
+        }
+    }
+
+    public static void glDeleteBuffers(int n, int[] buffers, int offset) {
+    }
+
+    public static void glBindBuffer(int target, int buffer) {
+    }
+
+    public static void glBufferData(int target, int size, Buffer data, int usage) {
+    }
+
+    public static void glBufferSubData(int target, int offset, int size, Buffer data) {
+    }
+
+    public static void glEnableVertexAttribArray(int index) {
+    }
+
+    public static void glDisableVertexAttribArray(int index) {
+    }
+
+    public static void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                             int stride, int offset) {
+    }
+
+    public static void glVertexAttribPointer(int index, int size, int type, boolean normalized,
+                                             int stride, Buffer pointer) {
+    }
+
+    public static void glVertexAttrib3fv(int index, float[] values, int offset) {
+    }
+
+    public static void glVertexAttrib4fv(int index, float[] values, int offset) {
+    }
+
+    public static void glUniform1f(int location, float x) {
+    }
+
+    public static void glUniform3f(int location, float x, float y, float z) {
+    }
+
+    public static void glUniform3fv(int location, int count, float[] values, int offset) {
+    }
+
+    public static void glUniform4f(int location, float x, float y, float z, float w) {
+    }
+
+    public static void glUniformMatrix4fv(int location, int count, boolean transpose,
+                                          float[] values, int offset) {
+    }
+
+    public static void glDrawArrays(int mode, int first, int count) {
+        sDrawCalls++;
+    }
+
+    public static void glDrawElements(int mode, int count, int type, int offset) {
+        sDrawCalls++;
+    }
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+
+package android.opengl;
+
+/**
+ * The matrix math of android.opengl.Matrix that the app uses, for running the frame loop on the
+ * JVM. Matrices are column major like on the device, and nothing allocates.
+ */
+public class Matrix {
+
+    // Scratch matrices of rotateM, guarded by their own lock like on the device.
+    private static final float[] sTemp = new float[32];
+
+    /**
+     * Multiplies lhs by rhs into result, which must not overlap either of them.
+     */
+    public static void multiplyMM(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                  float[] rhs, int rhsOffset) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += lhs[lhsOffset + k * 4 + row] * rhs[rhsOffset + column * 4 + k];
+                }
+                result[resultOffset + column * 4 + row] = sum;
+            }
+        }
+    }
+
+    /**
+     * Multiplies the vector rhs by lhs into result, which must not overlap either of them.
+     */
+    public static void multiplyMV(float[] result, int resultOffset, float[] lhs, int lhsOffset,
+                                  float[] rhs, int rhsOffset) {
+        for (int row = 0; row < 4; row++) {
+            float sum = 0;
+            for (int k = 0; k < 4; k++) {
+                sum += lhs[lhsOffset + k * 4 + row] * rhs[rhsOffset + k];
+            }
+            result[resultOffset + row] = sum;
+        }
+    }
+
+    public static void setIdentityM(float[] m, int offset) {
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = i % 5 == 0 ? 1.0f : 0.0f;
+        }
+    }
+
+    public static void translateM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + 12 + i] += m[offset + i] * x + m[offset + 4 + i] * y + m[offset + 8 + i] * z;
+        }
+    }
+
+    public static void scaleM(float[] m, int offset, float x, float y, float z) {
+        for (int i = 0; i < 4; i++) {
+            m[offset + i] *= x;
+            m[offset + 4 + i] *= y;
+            m[offset + 8 + i] *= z;
+        }
+    }
+
+    /**
+     * Sets a rotation by an angle in degrees about the axis (x, y, z).
+     */
+    public static void setRotateM(float[] m, int offset, float angle, float x, float y, float z) {
+        setIdentityM(m, offset);
+        double radians = Math.toRadians(angle);
+        float s = (float) Math.sin(radians);
+        float c = (float) Math.cos(radians);
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        x /= length;
+        y /= length;
+        z /= length;
+        float nc = 1.0f - c;
+        m[offset] = x * x * nc + c;
+        m[offset + 1] = x * y * nc + z * s;
+        m[offset + 2] = z * x * nc - y * s;
+        m[offset + 4] = x * y * nc - z * s;
+        m[offset + 5] = y * y * nc + c;
+        m[offset + 6] = y * z * nc + x * s;
+        m[offset + 8] = z * x * nc + y * s;
+        m[offset + 9] = y * z * nc - x * s;
+        m[offset + 10] = z * z * nc + c;
+    }
+
+    public static void rotateM(float[] m, int offset, float angle, float x, float y, float z) {
+        synchronized (sTemp) {
+            setRotateM(sTemp, 0, angle, x, y, z);
+            multiplyMM(sTemp, 16, m, offset, sTemp, 0);
+            System.arraycopy(sTemp, 16, m, offset, 16);
+        }
+    }
+
+    public static void setLookAtM(float[] m, int offset, float eyeX, float eyeY, float eyeZ,
+                                  float centerX, float centerY, float centerZ, float upX,
+                                  float upY, float upZ) {
+        float fx = centerX - eyeX;
+        float fy = centerY - eyeY;
+        float fz = centerZ - eyeZ;
+        float rlf = 1.0f / (float) Math.sqrt(fx * fx + fy * fy + fz * fz);
+        fx *= rlf;
+        fy *= rlf;
+        fz *= rlf;
+
+        // Side is forward cross up, and the true up is side cross forward.
+        float sx = fy * upZ - fz * upY;
+        float sy = fz * upX - fx * upZ;
+        float sz = fx * upY - fy * upX;
+        float rls = 1.0f / (float) Math.sqrt(sx * sx + sy * sy + sz * sz);
+        sx *= rls;
+        sy *= rls;
+        sz *= rls;
+        float ux = sy * fz - sz * fy;
+        float uy = sz * fx - sx * fz;
+        float uz = sx * fy - sy * fx;
+
+        m[offset] = sx;
+        m[offset + 1] = ux;
+        m[offset + 2] = -fx;
+        m[offset + 3] = 0.0f;
+        m[offset + 4] = sy;
+        m[offset + 5] = uy;
+        m[offset + 6] = -fy;
+        m[offset + 7] = 0.0f;
+        m[offset + 8] = sz;
+        m[offset + 9] = uz;
+        m[offset + 10] = -fz;
+        m[offset + 11] = 0.0f;
+        m[offset + 12] = 0.0f;
+        m[offset + 13] = 0.0f;
+        m[offset + 14] = 0.0f;
+        m[offset + 15] = 1.0f;
+        translateM(m, offset, -eyeX, -eyeY, -eyeZ);
+    }
+
+    /**
+     * Sets a perspective projection with a vertical field of view in degrees.
+     */
+    public static void perspectiveM(float[] m, int offset, float fovy, float aspect, float zNear,
+                                    float zFar) {
+        float f = 1.0f / (float) Math.tan(fovy * (Math.PI / 360.0));
+        float rangeReciprocal = 1.0f / (zNear - zFar);
+        for (int i = 0; i < 16; i++) {
+            m[offset + i] = 0.0f;
+        }
+        m[offset] = f / aspect;
+        m[offset + 5] = f;
+        m[offset + 10] = (zFar + zNear) * rangeReciprocal;
+        m[offset + 11] = -1.0f;
+        m[offset + 14] = 2.0f * zFar * zNear * rangeReciprocal;
+    }
+}
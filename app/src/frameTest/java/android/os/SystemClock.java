@@ -20,25 +20,22 @@
  THE SOFTWARE.
  ******************************************************************************/
 
-package com.kentdisplays.synccardboarddemo;
-
-public class Path {
-
-    public float x1;
-    public float x2;
-    public float y1;
-    public float y2;
-    public float width;
-
-    public Path(float x1, float y1, float x2, float y2, float width) {
-        this.x1 = x1;
-        this.y1 = y1;
-        this.x2 = x2;
-        this.y2 = y2;
-        this.width = width;
-    }
 
-    public Path() {
+
+package android.os;
+
+/**
+ * The clock of android.os.SystemClock, for running the frame loop on the JVM.
+ */
+public final class SystemClock {
+
+    private SystemClock() {
     }
 
+    /**
+     * Returns milliseconds since some fixed point, like the time since boot on the device.
+     */
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
 }
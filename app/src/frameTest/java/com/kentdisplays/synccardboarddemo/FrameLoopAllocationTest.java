@@ -0,0 +1,243 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+
+import com.google.vrtoolkit.cardboard.EyeParams;
+import com.google.vrtoolkit.cardboard.Viewport;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Runs the frame loop of MainActivity, the {@link PageScene}, on the JVM and fails if a frame
+ * allocates once the pages are loaded and uploaded. Allocations would make the garbage collector
+ * pause rendering every so often, which shows as judder in the headset.
+ *
+ * The android classes the loop uses are replaced by the fakes in this source set, so GL calls do
+ * nothing and the loop is left to allocate on its own. The scene loads the pages, uploads them and
+ * then draws them with a turning head, once one by one and once as a {@link PageBatch}. An empty
+ * page is shown first, so the scene also goes through a batch without any vertices. Run by the
+ * frame test tasks in app/build.gradle.
+ */
+public class FrameLoopAllocationTest {
+
+    private static final int PAGE_COUNT = 4;
+    private static final int SEGMENTS_PER_PAGE = 20000;
+    private static final int SEGMENTS_PER_STROKE = 100;
+    private static final int PAGE_CACHE_BYTES = 16 * 1024 * 1024;
+    private static final long UPLOAD_BUDGET_NANOS = 2000000L;
+    private static final long LOAD_TIMEOUT_MILLIS = 60000L;
+
+    // Enough frames for the loop to be compiled before it is measured. The JIT compiler may still
+    // allocate on the thread while a round is measured, so a few rounds are measured and one of
+    // them must allocate nothing. An allocating loop allocates in every round.
+    private static final int WARM_UP_FRAMES = 5000;
+    private static final int MEASURED_FRAMES = 5000;
+    private static final int MEASURED_ROUNDS = 3;
+
+    private static final float CAMERA_Z = 0.01f;
+    private static final float EYE_OFFSET = 0.03f;
+
+    private final boolean mBatching;
+    private final PageScene mPageScene;
+
+    private final Viewport mViewport = new Viewport();
+    private final float[] mPerspective = new float[16];
+    private final float[] mCamera = new float[16];
+    private final float[] mHeadView = new float[16];
+    private final float[] mEyeView = new float[16];
+    private final float[] mEyeHeadView = new float[16];
+    private final float[] mView = new float[16];
+    private final float[] mLightPosInEyeSpace = {0.0f, 2.0f, 0.0f, 1.0f};
+
+    private FrameLoopAllocationTest(boolean batching) {
+        mBatching = batching;
+        mPageScene = new PageScene(PAGE_COUNT, PAGE_CACHE_BYTES, UPLOAD_BUDGET_NANOS);
+        mPageScene.onSurfaceCreated(new ShaderProgram(1, 2),
+                batching ? new ShaderProgram(3, 4) : null, false);
+
+        mViewport.setViewport(0, 0, 960, 1080);
+        Matrix.perspectiveM(mPerspective, 0, 90.0f, 960.0f / 1080.0f, 0.1f, 100.0f);
+        Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        boolean passed = true;
+        for (boolean batching : new boolean[] {false, true}) {
+            FrameLoopAllocationTest test = new FrameLoopAllocationTest(batching);
+            passed &= test.run();
+            test.mPageScene.shutdown();
+        }
+        if (!passed) System.exit(1);
+    }
+
+    /**
+     * Loads the pages, then measures the frames drawn with everything uploaded.
+     *
+     * @return true if no frame allocated.
+     */
+    private boolean run() throws InterruptedException {
+        String name = mBatching ? "Batched pages" : "Pages one by one";
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println(name + ": FAILED, this JVM can not count allocated bytes");
+            return false;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        // The first page is empty, like a page nothing was written on yet, and is shown on its
+        // own before the others are loaded.
+        loadPage(0);
+        int frame = waitUntilLoaded(1, 0);
+        for (int slot = 1; slot < PAGE_COUNT; slot++) {
+            loadPage(slot);
+        }
+        frame = waitUntilLoaded(PAGE_COUNT, frame);
+        if (frame < 0) {
+            System.out.println(name + ": FAILED, the pages did not load in time");
+            return false;
+        }
+        for (int i = 0; i < WARM_UP_FRAMES; i++) {
+            drawFrame(frame++);
+        }
+
+        long thread = Thread.currentThread().getId();
+        long allocated = 0;
+        int drawCalls = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            drawCalls = GLES20.getDrawCalls();
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < MEASURED_FRAMES; i++) {
+                drawFrame(frame++);
+            }
+            long after = threads.getThreadAllocatedBytes(thread);
+            // Reading the counter may allocate itself, which does not count against the frames.
+            long overhead = threads.getThreadAllocatedBytes(thread) - after;
+            allocated = Math.max(0, after - before - overhead);
+            drawCalls = GLES20.getDrawCalls() - drawCalls;
+            if (allocated == 0) break;
+        }
+
+        if (drawCalls == 0) {
+            System.out.println(name + ": FAILED, no page was drawn");
+            return false;
+        }
+        if (allocated > 0) {
+            System.out.println(name + ": FAILED, every round of " + MEASURED_FRAMES
+                    + " frames allocated, the last one " + allocated + " bytes");
+            return false;
+        }
+        System.out.println(name + ": " + MEASURED_FRAMES + " frames with " + drawCalls
+                + " draw calls allocated nothing");
+        return true;
+    }
+
+    private void loadPage(final int slot) {
+        mPageScene.load(slot, new PageCache.Key("page " + slot, 0, 0), new PageLoader.Source() {
+            @Override
+            public PageMesh loadMesh() {
+                int segments = slot > 0 ? SEGMENTS_PER_PAGE : 0;
+                return StrokeMeshBuilder.tessellate(randomWalk(new Random(slot), segments));
+            }
+        });
+    }
+
+    /**
+     * Draws frames until the first pages are shown and uploaded.
+     *
+     * @param pageCount Number of pages to wait for.
+     * @param frame Number of frames drawn so far, or -1 if the pages did not load before.
+     * @return the number of frames drawn, or -1 if the pages did not load in time.
+     */
+    private int waitUntilLoaded(int pageCount, int frame) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + LOAD_TIMEOUT_MILLIS;
+        while (frame >= 0 && !isLoaded(pageCount)) {
+            if (System.currentTimeMillis() > deadline) return -1;
+            drawFrame(frame++);
+            Thread.sleep(1);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns true once the first pages are shown and uploaded.
+     */
+    private boolean isLoaded(int pageCount) {
+        Page[] pages = mPageScene.getShownPages();
+        for (int slot = 0; slot < pageCount; slot++) {
+            if (slot >= pages.length || pages[slot] == null) return false;
+        }
+        return mPageScene.isUploaded();
+    }
+
+    /**
+     * Draws a frame like MainActivity does, from onNewFrame to onFinishFrame.
+     */
+    private void drawFrame(int frame) {
+        mPageScene.newFrame();
+
+        // Turn the head all the way around every 720 frames, so pages enter and leave the view
+        // and change their level of detail.
+        Matrix.setRotateM(mHeadView, 0, frame * 0.5f, 0.0f, 1.0f, 0.0f);
+        drawEye(EyeParams.Eye.LEFT, -EYE_OFFSET);
+        drawEye(EyeParams.Eye.RIGHT, EYE_OFFSET);
+
+        mPageScene.finishFrame();
+    }
+
+    private void drawEye(int eye, float offset) {
+        Matrix.setIdentityM(mEyeView, 0);
+        Matrix.translateM(mEyeView, 0, offset, 0.0f, 0.0f);
+        Matrix.multiplyMM(mEyeHeadView, 0, mEyeView, 0, mHeadView, 0);
+        Matrix.multiplyMM(mView, 0, mEyeHeadView, 0, mCamera, 0);
+        mPageScene.drawEye(mPerspective, mView, mLightPosInEyeSpace, mViewport, eye);
+    }
+
+    /**
+     * Strokes that wander across the page in short connected segments, like handwriting.
+     */
+    private static StrokeData randomWalk(Random random, int segments) {
+        StrokeData strokes = new StrokeData(segments);
+        while (strokes.count < segments) {
+            float x = random.nextFloat() * StrokeData.PAGE_WIDTH;
+            float y = random.nextFloat() * StrokeData.PAGE_HEIGHT;
+            float angle = 0;
+            int count = Math.min(SEGMENTS_PER_STROKE, segments - strokes.count);
+            for (int i = 0; i < count; i++) {
+                angle += random.nextGaussian() * 0.3;
+                float nextX = x + (float) Math.cos(angle) * 20;
+                float nextY = y + (float) Math.sin(angle) * 20;
+                strokes.add(x, y, nextX, nextY, 20 + random.nextFloat() * 60);
+                x = nextX;
+                y = nextY;
+            }
+        }
+        return strokes;
+    }
+}
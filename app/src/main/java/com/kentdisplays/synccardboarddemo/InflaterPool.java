@@ -0,0 +1,140 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates page content streams in small chunks straight into a {@link StrokeDecoder}. The
+ * {@link Inflater} instances and the chunk buffers are pooled so that loading a page allocates
+ * neither a native inflate context nor a buffer the size of the whole stream.
+ */
+final class InflaterPool {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_POOLED = 4;
+
+    private static final ArrayDeque<Inflater> sInflaters = new ArrayDeque<Inflater>();
+    private static final ArrayDeque<byte[]> sBuffers = new ArrayDeque<byte[]>();
+
+    private InflaterPool() {
+    }
+
+    /**
+     * Feeds the decoded contents of a stream to the decoder.
+     */
+    static void decode(PdfDocument document, PdfDocument.Stream stream, StrokeDecoder decoder)
+            throws IOException {
+        byte[] input = obtainBuffer();
+        try {
+            if (stream.flateEncoded) {
+                byte[] output = obtainBuffer();
+                Inflater inflater = obtainInflater();
+                try {
+                    inflate(document, stream, inflater, input, output, decoder);
+                } finally {
+                    recycle(inflater);
+                    recycle(output);
+                }
+            } else {
+                int position = 0;
+                while (position < stream.length) {
+                    int count = Math.min(input.length, stream.length - position);
+                    document.read(stream.offset + position, input, 0, count);
+                    decoder.write(input, 0, count);
+                    position += count;
+                }
+            }
+        } finally {
+            recycle(input);
+        }
+    }
+
+    private static void inflate(PdfDocument document, PdfDocument.Stream stream, Inflater inflater,
+                                byte[] input, byte[] output, StrokeDecoder decoder)
+            throws IOException {
+        int position = 0;
+        try {
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    if (position >= stream.length) {
+                        // Truncated stream, keep whatever was decoded.
+                        break;
+                    }
+                    int count = Math.min(input.length, stream.length - position);
+                    document.read(stream.offset + position, input, 0, count);
+                    inflater.setInput(input, 0, count);
+                    position += count;
+                }
+
+                int count = inflater.inflate(output);
+                if (count > 0) {
+                    decoder.write(output, 0, count);
+                } else if (inflater.needsDictionary()) {
+                    throw new IOException("Preset dictionaries are not supported");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt flate stream: " + e.getMessage());
+        }
+    }
+
+    private static Inflater obtainInflater() {
+        synchronized (sInflaters) {
+            Inflater inflater = sInflaters.poll();
+            if (inflater != null) return inflater;
+        }
+        return new Inflater();
+    }
+
+    private static void recycle(Inflater inflater) {
+        inflater.reset();
+        synchronized (sInflaters) {
+            if (sInflaters.size() < MAX_POOLED) {
+                sInflaters.push(inflater);
+                return;
+            }
+        }
+        inflater.end();
+    }
+
+    private static byte[] obtainBuffer() {
+        synchronized (sBuffers) {
+            byte[] buffer = sBuffers.poll();
+            if (buffer != null) return buffer;
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    private static void recycle(byte[] buffer) {
+        synchronized (sBuffers) {
+            if (sBuffers.size() < MAX_POOLED * 2) {
+                sBuffers.push(buffer);
+            }
+        }
+    }
+}
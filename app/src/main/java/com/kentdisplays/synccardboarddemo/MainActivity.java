@@ -29,11 +29,13 @@ import android.content.IntentFilter;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
 import com.google.vrtoolkit.cardboard.CardboardActivity;
 import com.google.vrtoolkit.cardboard.CardboardView;
+import com.google.vrtoolkit.cardboard.EyeParams;
 import com.google.vrtoolkit.cardboard.EyeTransform;
 import com.google.vrtoolkit.cardboard.HeadTransform;
 import com.google.vrtoolkit.cardboard.Viewport;
@@ -41,8 +43,6 @@ import com.improvelectronics.sync.android.SyncFtpService;
 import com.improvelectronics.sync.android.SyncStreamingService;
 
 import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -66,15 +66,30 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
     private static final int COORDS_PER_VERTEX = 3;
 
+    private static final int PAGE_COUNT = 4;
+    private static final int PAGE_CACHE_BYTES = 16 * 1024 * 1024;
+
+    // Time per frame that may be spent uploading page meshes to the GPU.
+    private static final long UPLOAD_BUDGET_NANOS = 2000000L;
+
+    // Let the vertex shader place the corners of every segment instead of tessellating strips on
+    // the CPU. Loading does no tessellation at all, at the cost of more vertex data.
+    private static final boolean EXPAND_SEGMENTS_IN_SHADER = false;
+
+    // Draw all pages from one shared buffer, in one draw call per eye where possible. Only meshes
+    // of tessellated strips are batched.
+    private static final boolean BATCH_PAGES = true;
+
     private final WorldLayoutData DATA = new WorldLayoutData();
 
-    private Page[] mPages;
+    private PageScene mPageScene;
 
     private FloatBuffer mFloorVertices;
     private FloatBuffer mFloorColors;
     private FloatBuffer mFloorNormals;
 
-    private int mGlProgram;
+    private ShaderProgram mGlProgram;
+    private ShaderProgram mStrokeProgram;
     private int mPositionParam;
     private int mNormalParam;
     private int mColorParam;
@@ -96,6 +111,9 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
     private CardboardOverlayView mOverlayView;
 
+    private long mSurfaceCreatedTime;
+    private boolean mFirstFrameDrawn;
+
     private static Random mRandom;
 
     /**
@@ -167,6 +185,7 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         mHeadView = new float[16];
         mOverlayView = (CardboardOverlayView) findViewById(R.id.overlay);
         mRandom = new Random();
+        mPageScene = new PageScene(PAGE_COUNT, PAGE_CACHE_BYTES, UPLOAD_BUDGET_NANOS);
 
         // Set up a local receiver to listen for new saved files.
         IntentFilter intentFilter = new IntentFilter();
@@ -180,6 +199,8 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
         // Unregister from receiver.
         LocalBroadcastManager.getInstance(this).unregisterReceiver(mMessageReceiver);
+
+        mPageScene.shutdown();
     }
 
     /**
@@ -190,15 +211,19 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         public void onReceive(Context context, Intent intent) {
             // New file was saved, update a random page object in the world.
             String[] fileList = fileList();
-            String fileName = fileList[fileList.length - 1]; // Last file
-            int random = mRandom.nextInt(4); // Random position
-            try {
-                FileInputStream fis = openFileInput(fileName);
-                mPages[random] = new Page(fis, mGlProgram, random);
-                mOverlayView.show3DToast("Displaying new saved page");
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            }
+            final String fileName = fileList[fileList.length - 1]; // Last file
+            int random = mRandom.nextInt(PAGE_COUNT); // Random position
+
+            // Only the newest page of the document is shown, read from its stroke cache.
+            PageCache.Key key = PageCache.Key.forFile(getFileStreamPath(fileName));
+            mPageScene.load(random, key, new PageLoader.Source() {
+                @Override
+                public PageMesh loadMesh() throws IOException {
+                    StrokeData strokes = StrokeCache.getNewestPage(MainActivity.this, fileName);
+                    return buildPageMesh(strokes);
+                }
+            });
+            mOverlayView.show3DToast("Displaying new saved page");
         }
     };
 
@@ -220,6 +245,8 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
     @Override
     public void onSurfaceCreated(EGLConfig config) {
         Log.i(TAG, "onSurfaceCreated");
+        mSurfaceCreatedTime = SystemClock.uptimeMillis();
+        mFirstFrameDrawn = false;
 
         // make a floor
         ByteBuffer bbFloorVertices = ByteBuffer.allocateDirect(DATA.FLOOR_COORDS.length * 4);
@@ -243,26 +270,90 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         int vertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.light_vertex);
         int gridShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER, R.raw.grid_fragment);
 
-        mGlProgram = GLES20.glCreateProgram();
-        GLES20.glAttachShader(mGlProgram, vertexShader);
-        GLES20.glAttachShader(mGlProgram, gridShader);
-        GLES20.glLinkProgram(mGlProgram);
+        mGlProgram = new ShaderProgram(vertexShader, gridShader);
+
+        if (EXPAND_SEGMENTS_IN_SHADER) {
+            int strokeShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.stroke_vertex);
+            mStrokeProgram = new ShaderProgram(strokeShader, gridShader);
+        }
+
+        ShaderProgram batchProgram = null;
+        if (BATCH_PAGES && !EXPAND_SEGMENTS_IN_SHADER) {
+            int batchVertexShader = loadGLShader(GLES20.GL_VERTEX_SHADER, R.raw.batch_vertex);
+            int batchFragmentShader = loadGLShader(GLES20.GL_FRAGMENT_SHADER,
+                    R.raw.batch_fragment);
+            batchProgram = new ShaderProgram(batchVertexShader, batchFragmentShader);
+        }
+
+        // Locations used to draw the floor, looked up once when the program was linked.
+        mPositionParam = mGlProgram.getAttribute("a_Position");
+        mNormalParam = mGlProgram.getAttribute("a_Normal");
+        mColorParam = mGlProgram.getAttribute("a_Color");
+        mModelViewProjectionParam = mGlProgram.getUniform("u_MVP");
+        mLightPosParam = mGlProgram.getUniform("u_LightPos");
+        mModelViewParam = mGlProgram.getUniform("u_MVMatrix");
+        mModelParam = mGlProgram.getUniform("u_Model");
+        mIsFloorParam = mGlProgram.getUniform("u_IsFloor");
 
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
 
         Matrix.setIdentityM(mModelFloor, 0);
         Matrix.translateM(mModelFloor, 0, 0, -mFloorDepth, 0); // Floor appears below user
 
-        // Create the placeholder pages.
-        mPages = new Page[4];
-        mPages[0] = new Page(getResources().openRawResource(R.raw.boogie_board), mGlProgram, 0);
-        mPages[1] = new Page(getResources().openRawResource(R.raw.house), mGlProgram, 1);
-        mPages[2] = new Page(getResources().openRawResource(R.raw.placeholder), mGlProgram, 2);
-        mPages[3] = new Page(getResources().openRawResource(R.raw.cylinder), mGlProgram, 3);
+        // Empty the slots, then create the placeholder pages in the background. Slots stay empty
+        // until they are ready.
+        mPageScene.onSurfaceCreated(getPageProgram(), batchProgram,
+                batchProgram != null && PageBatch.supportsUintIndices());
+        loadBundledPage(0, R.raw.boogie_board);
+        loadBundledPage(1, R.raw.house);
+        loadBundledPage(2, R.raw.placeholder);
+        loadBundledPage(3, R.raw.cylinder);
 
         checkGLError("onSurfaceCreated");
     }
 
+    /**
+     * Starts loading a page bundled as a raw resource into a slot. The mesh baked from the
+     * resource at build time is used when available, otherwise the PDF is decoded.
+     */
+    private void loadBundledPage(int slot, final int resId) {
+        mPageScene.load(slot, PageCache.Key.forResource(resId), new PageLoader.Source() {
+            @Override
+            public PageMesh loadMesh() throws IOException {
+                String name = getResources().getResourceEntryName(resId);
+                PageMesh mesh = MeshFile.readAsset(getAssets(), name);
+                if (mesh != null && mesh.getFormat() == getPageFormat()) return mesh;
+
+                Log.w(TAG, "No baked mesh for " + name + ", decoding the PDF");
+                InputStream inputStream = getResources().openRawResource(resId);
+                try {
+                    PdfDocument document = PdfDocument.read(inputStream);
+                    return buildPageMesh(StrokeDecoder.decodePage(document, 0));
+                } finally {
+                    inputStream.close();
+                }
+            }
+        });
+    }
+
+    private static VertexFormat getPageFormat() {
+        return EXPAND_SEGMENTS_IN_SHADER ? VertexFormat.SEGMENTS : VertexFormat.STRIPS;
+    }
+
+    private static PageMesh buildPageMesh(StrokeData strokes) {
+        if (EXPAND_SEGMENTS_IN_SHADER) {
+            return SegmentMeshBuilder.build(strokes);
+        }
+        return StrokeMeshBuilder.tessellate(strokes);
+    }
+
+    /**
+     * Returns the program that draws meshes in the format from {@link #getPageFormat()}.
+     */
+    private ShaderProgram getPageProgram() {
+        return EXPAND_SEGMENTS_IN_SHADER ? mStrokeProgram : mGlProgram;
+    }
+
     /**
      * Converts a raw text file into a string.
      * @param resId The resource ID of the raw text file about to be turned into a shader.
@@ -291,20 +382,16 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
      */
     @Override
     public void onNewFrame(HeadTransform headTransform) {
-        GLES20.glUseProgram(mGlProgram);
+        mGlProgram.use();
         GLES20.glClearColor(0f, 0f, 0f, 1.0f); // Dark background so text shows up well
 
-        mModelViewProjectionParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVP");
-        mLightPosParam = GLES20.glGetUniformLocation(mGlProgram, "u_LightPos");
-        mModelViewParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVMatrix");
-        mModelParam = GLES20.glGetUniformLocation(mGlProgram, "u_Model");
-        mIsFloorParam = GLES20.glGetUniformLocation(mGlProgram, "u_IsFloor");
-
         // Build the camera matrix and apply it to the ModelView.
         Matrix.setLookAtM(mCamera, 0, 0.0f, 0.0f, CAMERA_Z, 0.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f);
 
         headTransform.getHeadView(mHeadView, 0);
 
+        mPageScene.newFrame();
+
         checkGLError("onReadyToDraw");
     }
 
@@ -318,15 +405,6 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
         GLES20.glClearColor(0f, 0f, 0f, 1.00f); // Dark background so text shows up well
 
-        mPositionParam = GLES20.glGetAttribLocation(mGlProgram, "a_Position");
-        mNormalParam = GLES20.glGetAttribLocation(mGlProgram, "a_Normal");
-        mColorParam = GLES20.glGetAttribLocation(mGlProgram, "a_Color");
-
-        GLES20.glEnableVertexAttribArray(mPositionParam);
-        GLES20.glEnableVertexAttribArray(mNormalParam);
-        GLES20.glEnableVertexAttribArray(mColorParam);
-        checkGLError("mColorParam");
-
         // Apply the eye transformation to the camera.
         Matrix.multiplyMM(mView, 0, transform.getEyeView(), 0, mCamera, 0);
 
@@ -335,11 +413,12 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         GLES20.glUniform3f(mLightPosParam, mLightPosInEyeSpace[0], mLightPosInEyeSpace[1],
                 mLightPosInEyeSpace[2]);
 
-        // Draw the pages.
-        for(Page page : mPages) {
-            page.draw(transform.getPerspective(), mView);
-            checkGLError("Drawing page");
-        }
+        // Draw the pages in view of this eye.
+        EyeParams eye = transform.getParams();
+        mPageScene.drawEye(transform.getPerspective(), mView, mLightPosInEyeSpace,
+                eye.getViewport(), eye.getEye());
+        checkGLError("Drawing pages");
+        mGlProgram.use();
 
         // Set mModelView for the floor, so we draw floor in the correct location
         Matrix.multiplyMM(mModelView, 0, mView, 0, mModelFloor, 0);
@@ -350,6 +429,13 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
 
     @Override
     public void onFinishFrame(Viewport viewport) {
+        if (!mFirstFrameDrawn) {
+            mFirstFrameDrawn = true;
+            Log.i(TAG, "Time to first frame: " + (SystemClock.uptimeMillis() - mSurfaceCreatedTime)
+                    + " ms");
+        }
+
+        mPageScene.finishFrame();
     }
 
     /**
@@ -361,6 +447,12 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         // This is the floor!
         GLES20.glUniform1f(mIsFloorParam, 1f);
 
+        // Each draw enables only the attribute arrays it uses.
+        GLES20.glEnableVertexAttribArray(mPositionParam);
+        GLES20.glEnableVertexAttribArray(mNormalParam);
+        GLES20.glEnableVertexAttribArray(mColorParam);
+        checkGLError("mColorParam");
+
         // Set ModelView, MVP, position, normals, and color
         GLES20.glUniformMatrix4fv(mModelParam, 1, false, mModelFloor, 0);
         GLES20.glUniformMatrix4fv(mModelViewParam, 1, false, mModelView, 0);
@@ -371,6 +463,10 @@ public class MainActivity extends CardboardActivity implements CardboardView.Ste
         GLES20.glVertexAttribPointer(mColorParam, 4, GLES20.GL_FLOAT, false, 0, mFloorColors);
         GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, 6);
 
+        GLES20.glDisableVertexAttribArray(mPositionParam);
+        GLES20.glDisableVertexAttribArray(mNormalParam);
+        GLES20.glDisableVertexAttribArray(mColorParam);
+
         checkGLError("drawing floor");
     }
 
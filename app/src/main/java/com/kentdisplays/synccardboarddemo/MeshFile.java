@@ -0,0 +1,235 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary file holding a tessellated {@link PageMesh}, baked from the bundled pages at build time
+ * so they can be shown without decoding a PDF. The file is little endian:
+ * <pre>
+ * int magic, int version, int format, int segmentCount, int chunkCount, int levelCount,
+ * int vertexBytes, int indexCount, float originX, float originY, float scaleX, float scaleY,
+ * int[chunkCount + 1] chunkFirstVertex, int[chunkCount + 1] chunkFirstIndex,
+ * int[levelCount + 1] levelFirstChunk,
+ * float[segmentCount] x1, y1, x2, y2, width,
+ * byte[vertexBytes] vertices, short[indexCount] indices
+ * </pre>
+ * The vertices are laid out as given by the {@link VertexFormat} with the id in the header, and
+ * the levels of detail are listed from the coarsest to level 0 like they are stored.
+ * Baked files are stored uncompressed in the APK so they can be memory mapped, and the vertex
+ * data is handed to the mesh as direct buffers on the mapping.
+ */
+public final class MeshFile {
+
+    public static final String ASSET_DIRECTORY = "meshes";
+    public static final String EXTENSION = ".mesh";
+
+    private static final int MAGIC = 0x53594e4d; // "SYNM"
+    private static final int VERSION = 6;
+    private static final int HEADER_SIZE = 12 * 4;
+
+    private MeshFile() {
+    }
+
+    /**
+     * Maps the baked mesh of a bundled page from the assets.
+     *
+     * @param name Resource entry name of the page, for example "house".
+     * @return the mesh, or null when there is no usable baked mesh for the page.
+     */
+    public static PageMesh readAsset(AssetManager assets, String name) throws IOException {
+        // Vertex data has to be in native order, which is little endian on every Android ABI.
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) return null;
+
+        AssetFileDescriptor descriptor;
+        try {
+            descriptor = assets.openFd(ASSET_DIRECTORY + "/" + name + EXTENSION);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        try {
+            FileInputStream inputStream = descriptor.createInputStream();
+            try {
+                ByteBuffer buffer = inputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                        descriptor.getStartOffset(), descriptor.getLength());
+                return read(buffer);
+            } finally {
+                inputStream.close();
+            }
+        } finally {
+            descriptor.close();
+        }
+    }
+
+    /**
+     * Reads a mesh from a buffer holding a whole mesh file.
+     *
+     * @return the mesh, or null when the buffer holds a different format version.
+     */
+    static PageMesh read(ByteBuffer buffer) throws IOException {
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a mesh file");
+        }
+        if (buffer.getInt() != VERSION) return null;
+
+        VertexFormat format = VertexFormat.forId(buffer.getInt());
+        int segmentCount = buffer.getInt();
+        int chunkCount = buffer.getInt();
+        int levelCount = buffer.getInt();
+        int vertexBytes = buffer.getInt();
+        int indexCount = buffer.getInt();
+        if (format == null) throw new IOException("Unknown vertex format");
+        float[] origin = {buffer.getFloat(), buffer.getFloat()};
+        float[] scale = {buffer.getFloat(), buffer.getFloat()};
+        long size = HEADER_SIZE + ((long) chunkCount + 1) * 2 * 4 + ((long) levelCount + 1) * 4
+                + (long) segmentCount * 5 * 4 + vertexBytes + (long) indexCount * 2;
+        if (segmentCount < 0 || chunkCount < 0 || levelCount < 1 || buffer.capacity() != size) {
+            throw new IOException("Truncated mesh file");
+        }
+
+        int[] chunkFirstVertex = new int[chunkCount + 1];
+        int[] chunkFirstIndex = new int[chunkCount + 1];
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.get(chunkFirstVertex);
+        ints.get(chunkFirstIndex);
+        int[] levelFirstChunk = new int[levelCount + 1];
+        ints.get(levelFirstChunk);
+        int offset = HEADER_SIZE + (chunkCount + 1) * 2 * 4 + (levelCount + 1) * 4;
+
+        StrokeData strokes = new StrokeData(segmentCount);
+        buffer.position(offset);
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.get(strokes.x1, 0, segmentCount);
+        floats.get(strokes.y1, 0, segmentCount);
+        floats.get(strokes.x2, 0, segmentCount);
+        floats.get(strokes.y2, 0, segmentCount);
+        floats.get(strokes.width, 0, segmentCount);
+        strokes.count = segmentCount;
+        offset += segmentCount * 5 * 4;
+
+        ByteBuffer vertexData = slice(buffer, offset, vertexBytes);
+        offset += vertexBytes;
+        ShortBuffer indices = slice(buffer, offset, indexCount * 2).asShortBuffer();
+        return new PageMesh(strokes, format, vertexData, origin, scale, indices, chunkFirstVertex,
+                chunkFirstIndex, levelFirstChunk);
+    }
+
+    /**
+     * Writes a mesh, used by the build to bake the bundled pages.
+     */
+    public static void write(File file, PageMesh mesh) throws IOException {
+        StrokeData strokes = mesh.getStrokes();
+        ByteBuffer vertexData = mesh.getVertexData();
+        ShortBuffer indices = mesh.getIndices();
+        int count = strokes.count;
+        int chunkCount = mesh.getChunkCount();
+        int levelCount = mesh.getLevelCount();
+        if (vertexData == null) {
+            throw new IOException("Vertex data was released after upload");
+        }
+        if (vertexData.order() != ByteOrder.LITTLE_ENDIAN) {
+            throw new IOException("Vertex data must be little endian");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (chunkCount + 1) * 2 * 4
+                + (levelCount + 1) * 4 + count * 5 * 4 + vertexData.capacity()
+                + indices.capacity() * 2);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(mesh.getFormat().id);
+        buffer.putInt(count);
+        buffer.putInt(chunkCount);
+        buffer.putInt(levelCount);
+        buffer.putInt(vertexData.capacity());
+        buffer.putInt(mesh.getIndexCount());
+        buffer.putFloat(mesh.getOriginX());
+        buffer.putFloat(mesh.getOriginY());
+        buffer.putFloat(mesh.getScaleX());
+        buffer.putFloat(mesh.getScaleY());
+        for (int chunk = 0; chunk <= chunkCount; chunk++) {
+            buffer.putInt(mesh.getChunkFirstVertex(chunk));
+        }
+        for (int chunk = 0; chunk <= chunkCount; chunk++) {
+            buffer.putInt(mesh.getChunkFirstIndex(chunk));
+        }
+        for (int level = levelCount - 1; level >= 0; level--) {
+            buffer.putInt(mesh.getLevelFirstChunk(level));
+        }
+        buffer.putInt(chunkCount);
+
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.put(strokes.x1, 0, count);
+        floats.put(strokes.y1, 0, count);
+        floats.put(strokes.x2, 0, count);
+        floats.put(strokes.y2, 0, count);
+        floats.put(strokes.width, 0, count);
+        buffer.position(buffer.position() + floats.position() * 4);
+        // Vertex data is written as is, little endian like the rest of the file.
+        ByteBuffer vertexCopy = vertexData.duplicate();
+        vertexCopy.clear();
+        buffer.put(vertexCopy);
+        ShortBuffer shorts = buffer.asShortBuffer();
+        putAll(shorts, indices);
+        buffer.position(0);
+
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+    private static void putAll(ShortBuffer destination, ShortBuffer source) {
+        ShortBuffer copy = source.duplicate();
+        copy.clear();
+        destination.put(copy);
+    }
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.util.ArrayDeque;
+
+/**
+ * Spreads the upload of page meshes, or of the batch of all pages, into GL buffers over several
+ * frames. Each frame uploads chunks until its time budget is used up, so a large page appears
+ * chunk by chunk instead of stalling a frame. Must only be used on the GL thread.
+ */
+public class MeshUploader {
+
+    /**
+     * Vertex data that is copied into GL buffers a chunk at a time, on the GL thread.
+     */
+    public interface Uploadable {
+        /**
+         * Returns true if anything is left to upload.
+         */
+        boolean needsUpload();
+
+        /**
+         * Uploads the next part of the data, about as much as maxVertices vertices.
+         *
+         * @return true once everything is uploaded.
+         */
+        boolean uploadChunk(int maxVertices);
+    }
+
+    private static final int CHUNK_VERTICES = 2048;
+
+    private final ArrayDeque<Uploadable> mPending = new ArrayDeque<Uploadable>();
+    private final long mBudgetNanos;
+
+    /**
+     * @param budgetNanos Time per frame that may be spent uploading.
+     */
+    public MeshUploader(long budgetNanos) {
+        mBudgetNanos = budgetNanos;
+    }
+
+    /**
+     * Queues a mesh for upload unless it is already uploaded, lost or queued.
+     */
+    public void add(Uploadable mesh) {
+        if (mesh.needsUpload() && !mPending.contains(mesh)) {
+            mPending.add(mesh);
+        }
+    }
+
+    /**
+     * Stops uploading a mesh, for example because its buffers are about to be deleted.
+     */
+    public void remove(Uploadable mesh) {
+        mPending.remove(mesh);
+    }
+
+    /**
+     * Uploads chunks of the queued meshes until the frame budget is spent. At least one chunk is
+     * uploaded per call so uploading always makes progress.
+     */
+    public void upload() {
+        long deadline = System.nanoTime() + mBudgetNanos;
+        while (!mPending.isEmpty()) {
+            if (mPending.peek().uploadChunk(CHUNK_VERTICES)) {
+                mPending.poll();
+            }
+            if (System.nanoTime() >= deadline) break;
+        }
+    }
+
+    /**
+     * Drops all queued meshes, for example after the GL context was lost.
+     */
+    public void clear() {
+        mPending.clear();
+    }
+}
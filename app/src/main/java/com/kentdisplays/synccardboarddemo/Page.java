@@ -26,19 +26,7 @@ import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.SystemClock;
 
-import com.google.common.primitives.Floats;
-import com.sun.pdfview.decode.FlateDecode;
-
-import org.apache.http.util.EncodingUtils;
-
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
+import com.google.vrtoolkit.cardboard.Viewport;
 
 /**
  * Object that encapsulates drawing a page generated from a Boogie Board Sync.
@@ -46,104 +34,88 @@ import java.util.Arrays;
 public class Page {
 
     private static final float mDistance = 3f;
-    private int mNumberOfPaths;
-    private float[] mModel;
 
-    private int mModelViewProjectionParam;
-    private int mIsFloorParam;
-    private int mModelParam;
-    private int mModelViewParam;
-    private int mPositionParam;
-    private int mNormalParam;
-    private int mColorParam;
-    private int mGlProgram;
+    // Angle covered by one display pixel on a typical Cardboard viewer, in radians.
+    private static final float PIXEL_ANGLE = 0.0016f;
 
-    private FloatBuffer mPageVertices;
-    private FloatBuffer mPageNormals;
-    private FloatBuffer mPageColors;
+    // A coarser level is only chosen once its tolerance is this far below what would be
+    // invisible, so a level does not flip back and forth while the head moves slightly.
+    private static final float LEVEL_HYSTERESIS = 0.75f;
 
-    // number of coordinates per vertex in this array
-    static final int COORDS_PER_VERTEX = 3;
+    // Corners of a page in page coordinates, the page lies at z = 1.
+    private static final float[] CORNERS = {
+            -1.0f, -1.0f, 1.0f, 1.0f,
+            1.0f, -1.0f, 1.0f, 1.0f,
+            1.0f, 1.0f, 1.0f, 1.0f,
+            -1.0f, 1.0f, 1.0f, 1.0f};
+    private final PageMesh mMesh;
+    private float[] mModel;
+    // Corners of the box around the strokes as they are drawn, in page coordinates like CORNERS.
+    private final float[] mBoundsCorners = new float[4 * 4];
+    // Widest stroke of the page, in digitizer units.
+    private final float mMaxStrokeWidth;
+    // Places page coordinates in the world, without the dequantization of the mesh.
+    private final float[] mPlacement = new float[16];
+
+    // Level of detail last chosen for each eye, indexed by EyeParams.Eye.
+    private final int[] mEyeLevels = new int[3];
+    private final float[] mLevelMatrix = new float[16];
+    private final float[] mLevelScratch = new float[16];
+    private final float[] mProjectedCorners = new float[4 * 4];
+
+    // Scratch matrices of draw(), so drawing a frame does not allocate.
+    private final float[] mModelView = new float[16];
+    private final float[] mModelViewProjection = new float[16];
+
+    private final int mModelViewProjectionParam;
+    private final int mIsFloorParam;
+    private final int mModelParam;
+    private final int mModelViewParam;
+    private final int mLightPosParam;
+    private final int mDequantizationParam;
+    private final int mWidthScaleParam;
+    private final int mMinWidthParam;
+    private final int[] mAttributeParams;
+    private final int mNormalParam;
+    private final int mColorParam;
+    private final ShaderProgram mProgram;
+
+    // Page units per digitizer unit of stroke width, used when the shader places the corners.
+    private float mStrokeWidthScale = PageMesh.STROKE_WIDTH_SCALE;
+
+    // Every vertex of a page has the same normal and color, so they are passed as constant
+    // attribute values instead of arrays.
+    private static final float[] NORMAL = {0.0f, 0.0f, 1.0f};
+    private static final float[] COLOR = {0.2f, 0.709803922f, 0.898039216f, 1.0f};
 
     /**
-     * Sets up the drawing object data for use in an OpenGL ES context.
+     * Places a prepared page mesh in the world for drawing in an OpenGL ES context.
      *
-     * @param is InputStream to the page to load the path data from.
+     * @param mesh Tessellated page, possibly shared with other pages.
+     * @param program Program for the vertex format of the mesh, light_vertex for strips and
+     *                stroke_vertex for segments.
+     * @param direction Wall the page is placed on: 0 front, 1 left, 2 behind, 3 right.
      */
-    public Page(InputStream is, int glProgram, int direction) {
+    public Page(PageMesh mesh, ShaderProgram program, int direction) {
 
+        this.mMesh = mesh;
         this.mModel = new float[16];
-        this.mGlProgram = glProgram;
-
-        // Calculate the coordinates from the given path.
-        ArrayList<Path> paths = pathsFromSamplePageInputStream(is);
-        float finalCoords[] = {};
-        float finalNormals[] = {};
-        float finalColors[] = {};
-        mNumberOfPaths = paths.size();
-        for(int i = 0; i < mNumberOfPaths; i++) {
-            Path path = paths.get(i);
-            float x1 = (path.x1 / 13942 * 2) - 1;
-            float y1 = (path.y1 / 20280 * 2) - 1;
-            float x2 = (path.x2 / 13942 * 2) - 1;
-            float y2 = (path.y2 / 20280 * 2) - 1;
-            float width = path.width / 3000;
-            width = width < 0.013f ? 0.013f : width; // Width should be at least 0.013
-
-            float distance = (float)Math.sqrt(Math.pow(x2-x1,2) + Math.pow(y2-y1,2));
-            float angle = (float)Math.PI/2 - (float)Math.asin((x2-x1)/distance);
-            float xdiff = (width/2)*(float)Math.sin(angle);
-            float ydiff = (width/2)*(float)Math.cos(angle);
-
-            float coords[] = {
-                    x1 - xdiff, y1 - ydiff, 1.0f,   // top left
-                    x2 - xdiff, y2 - ydiff, 1.0f,   // bottom left
-                    x1 + xdiff, y1 + ydiff, 1.0f,   // top right
-                    x2 - xdiff, y2 - ydiff, 1.0f,   // bottom left
-                    x2 + xdiff, y2 + ydiff, 1.0f,   // bottom right
-                    x1 + xdiff, y1 + ydiff, 1.0f,   // top right
-            };
-
-            float normals[] = {
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-                    0.0f, 0.0f, 1.0f,
-            };
-
-            float colors[] = {
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-                    0.2f, 0.709803922f, 0.898039216f, 1.0f,
-            };
-
-            finalCoords = Floats.concat(finalCoords, coords);
-            finalNormals = Floats.concat(finalNormals, normals);
-            finalColors = Floats.concat(finalColors, colors);
-        }
-
-        ByteBuffer bbVertices = ByteBuffer.allocateDirect(finalCoords.length * 4);
-        bbVertices.order(ByteOrder.nativeOrder());
-        mPageVertices = bbVertices.asFloatBuffer();
-        mPageVertices.put(finalCoords);
-        mPageVertices.position(0);
-
-        ByteBuffer bbNormals = ByteBuffer.allocateDirect(finalNormals.length * 4);
-        bbNormals.order(ByteOrder.nativeOrder());
-        mPageNormals = bbNormals.asFloatBuffer();
-        mPageNormals.put(finalNormals);
-        mPageNormals.position(0);
-
-        ByteBuffer bbColors = ByteBuffer.allocateDirect(finalColors.length * 4);
-        bbColors.order(ByteOrder.nativeOrder());
-        mPageColors = bbColors.asFloatBuffer();
-        mPageColors.put(finalColors);
-        mPageColors.position(0);
+        this.mProgram = program;
+
+        // The locations were looked up when the program was linked.
+        VertexFormat format = mesh.getFormat();
+        mAttributeParams = new int[format.getAttributeCount()];
+        format.getAttributeLocations(program, mAttributeParams);
+        mNormalParam = program.getAttribute("a_Normal");
+        mColorParam = program.getAttribute("a_Color");
+        mModelViewProjectionParam = program.getUniform("u_MVP");
+        mIsFloorParam = program.getUniform("u_IsFloor");
+        mModelParam = program.getUniform("u_Model");
+        mModelViewParam = program.getUniform("u_MVMatrix");
+        mLightPosParam = program.getUniform("u_LightPos");
+        mDequantizationParam = program.getUniform("u_Dequantization");
+        mWidthScaleParam = program.getUniform("u_WidthScale");
+        mMinWidthParam = program.getUniform("u_MinWidth");
 
         // Correctly place the page in the world.
         Matrix.setIdentityM(mModel, 0);
@@ -164,22 +136,241 @@ public class Page {
                 Matrix.rotateM(mModel, 0, 270,0,1f,0);
                 break;
         }
+
+        System.arraycopy(mModel, 0, mPlacement, 0, 16);
+        if (mesh.getFormat() == VertexFormat.STRIPS) {
+            // Map the quantized vertices of the mesh to page coordinates first. Segments are
+            // dequantized in the shader, before their corners are placed.
+            Matrix.multiplyMM(mModel, 0, mPlacement, 0, mesh.getDequantization(), 0);
+        }
+
+        StrokeData strokes = mesh.getStrokes();
+        float maxStrokeWidth = 0;
+        for (int i = 0; i < strokes.count; i++) {
+            maxStrokeWidth = Math.max(maxStrokeWidth, strokes.width[i]);
+        }
+        mMaxStrokeWidth = maxStrokeWidth;
+        updateBounds();
+
+        // Start every eye at the coarsest level, the first frame refines it.
+        for (int eye = 0; eye < mEyeLevels.length; eye++) {
+            mEyeLevels[eye] = mesh.getLevelCount() - 1;
+        }
+    }
+
+    public PageMesh getMesh() {
+        return mMesh;
+    }
+
+    /**
+     * Returns the matrix that maps the vertices of the mesh into the world. Must not be modified.
+     */
+    public float[] getModel() {
+        return mModel;
+    }
+
+    /**
+     * Returns the matrix that places page coordinates in the world, without the dequantization
+     * of the mesh. Must not be modified.
+     */
+    public float[] getPlacement() {
+        return mPlacement;
+    }
+
+    /**
+     * Returns the spatial index over the strokes of the page, in digitizer coordinates.
+     */
+    public StrokeIndex getStrokeIndex() {
+        return mMesh.getStrokeIndex();
+    }
+
+    /**
+     * Changes how wide strokes are drawn. Only meshes whose corners are placed by the shader
+     * follow this without being rebuilt.
+     *
+     * @param scale Page units per digitizer unit of stroke width.
+     */
+    public void setStrokeWidthScale(float scale) {
+        mStrokeWidthScale = scale;
+        updateBounds();
+    }
+
+    /**
+     * Places the corners of the box around the strokes as they are drawn.
+     */
+    private void updateBounds() {
+        float[] bounds = new float[4];
+        mMesh.getStrokeIndex().getBounds(bounds);
+
+        // The index covers the strokes at the default width. Segments follow the stroke width
+        // scale, so the box grows by however much wider they are drawn.
+        float grow = 0;
+        if (mMesh.getFormat() == VertexFormat.SEGMENTS
+                && mStrokeWidthScale > PageMesh.STROKE_WIDTH_SCALE) {
+            grow = mMaxStrokeWidth * (mStrokeWidthScale - PageMesh.STROKE_WIDTH_SCALE) / 2;
+        }
+        float minX = bounds[0] / StrokeData.PAGE_WIDTH * 2 - 1 - grow;
+        float minY = bounds[1] / StrokeData.PAGE_HEIGHT * 2 - 1 - grow;
+        float maxX = bounds[2] / StrokeData.PAGE_WIDTH * 2 - 1 + grow;
+        float maxY = bounds[3] / StrokeData.PAGE_HEIGHT * 2 - 1 + grow;
+        for (int i = 0; i < 4; i++) {
+            int o = i * 4;
+            mBoundsCorners[o] = CORNERS[o] < 0 ? minX : maxX;
+            mBoundsCorners[o + 1] = CORNERS[o + 1] < 0 ? minY : maxY;
+            mBoundsCorners[o + 2] = CORNERS[o + 2];
+            mBoundsCorners[o + 3] = CORNERS[o + 3];
+        }
+    }
+
+    /**
+     * Returns how far, in page units, a flattened curve may deviate from the true curve while
+     * staying below half a pixel at the distance the pages are viewed from.
+     */
+    public static float getCurveTolerance() {
+        float worldUnitsPerPixel = mDistance * PIXEL_ANGLE;
+        // A page spans two world units across its width.
+        return worldUnitsPerPixel * 0.5f * StrokeData.PAGE_WIDTH / 2;
+    }
+
+    /**
+     * Returns how far, in page units, a simplified polyline of a level of detail may deviate from
+     * the strokes. Level 1 stays below half a pixel at the distance the pages are viewed from, so
+     * it looks the same as level 0, and every further level doubles that.
+     */
+    public static float getLevelTolerance(int level) {
+        if (level == 0) return 0;
+        float worldUnitsPerPixel = mDistance * PIXEL_ANGLE;
+        return worldUnitsPerPixel * 0.5f * (1 << (level - 1));
+    }
+
+    /**
+     * Chooses the level of detail to draw for an eye from how large the page appears on screen.
+     * The coarsest level is kept whose tolerance stays below half a pixel where the page is
+     * magnified the most. A page entirely outside the view gets the coarsest level.
+     *
+     * @param perspective Projection of the eye.
+     * @param view View matrix of the eye.
+     * @param viewport Viewport of the eye, to convert to pixels.
+     * @param eye Eye being drawn, one of EyeParams.Eye.
+     * @return the level to pass to {@link #draw(float[], float[], float[], int)}.
+     */
+    public int chooseLevel(float[] perspective, float[] view, Viewport viewport, int eye) {
+        int coarsest = mMesh.getLevelCount() - 1;
+        // A page is outside the view when all of its corners are outside the same clip plane.
+        int outside = projectCorners(perspective, view, CORNERS);
+        boolean behind = false;
+        for (int i = 0; i < 4; i++) {
+            behind |= mProjectedCorners[i * 4 + 3] <= 0;
+        }
+        if (outside != 0) {
+            mEyeLevels[eye] = coarsest;
+            return coarsest;
+        }
+        if (behind) {
+            // The page reaches behind the eye, so it is as close as it gets.
+            mEyeLevels[eye] = 0;
+            return 0;
+        }
+
+        // Corners in pixels from the center of the viewport.
+        for (int i = 0; i < 4; i++) {
+            int o = i * 4;
+            float w = mProjectedCorners[o + 3];
+            mProjectedCorners[o] = mProjectedCorners[o] / w * viewport.width / 2;
+            mProjectedCorners[o + 1] = mProjectedCorners[o + 1] / w * viewport.height / 2;
+        }
+
+        // A page spans two page units along every edge.
+        float longestEdge = 0;
+        for (int i = 0; i < 4; i++) {
+            int a = i * 4;
+            int b = ((i + 1) % 4) * 4;
+            float dx = mProjectedCorners[b] - mProjectedCorners[a];
+            float dy = mProjectedCorners[b + 1] - mProjectedCorners[a + 1];
+            longestEdge = Math.max(longestEdge, dx * dx + dy * dy);
+        }
+        float pixelsPerUnit = (float) Math.sqrt(longestEdge) / 2;
+        float invisible = 0.5f / Math.max(pixelsPerUnit, Float.MIN_NORMAL);
+
+        int level = mEyeLevels[eye];
+        while (level > 0 && getLevelTolerance(level) > invisible) {
+            level--;
+        }
+        while (level < coarsest && getLevelTolerance(level + 1) < invisible * LEVEL_HYSTERESIS) {
+            level++;
+        }
+        mEyeLevels[eye] = level;
+        return level;
     }
 
     /**
-     * Encapsulates the OpenGL ES instructions for drawing this page.
+     * Tests the box around the strokes against the view frustum of an eye. A page that fails the
+     * test has nothing that would show up and need not be drawn for that eye.
+     *
+     * @param perspective Projection of the eye.
+     * @param view View matrix of the eye.
+     * @return false if the strokes are entirely outside the view.
+     */
+    public boolean isInFrustum(float[] perspective, float[] view) {
+        return projectCorners(perspective, view, mBoundsCorners) == 0;
+    }
+
+    /**
+     * Projects 4 corners in page coordinates into clip space, into mProjectedCorners.
+     *
+     * @return the clip planes that all corners are outside of, one bit per plane. The quad they
+     *         span is outside the view when this is not 0.
+     */
+    private int projectCorners(float[] perspective, float[] view, float[] corners) {
+        Matrix.multiplyMM(mLevelScratch, 0, view, 0, mPlacement, 0);
+        Matrix.multiplyMM(mLevelMatrix, 0, perspective, 0, mLevelScratch, 0);
+
+        int outside = 0x3f;
+        for (int i = 0; i < 4; i++) {
+            int o = i * 4;
+            Matrix.multiplyMV(mProjectedCorners, o, mLevelMatrix, 0, corners, o);
+            float x = mProjectedCorners[o];
+            float y = mProjectedCorners[o + 1];
+            float z = mProjectedCorners[o + 2];
+            float w = mProjectedCorners[o + 3];
+            outside &= (x < -w ? 1 : 0) | (x > w ? 2 : 0) | (y < -w ? 4 : 0) | (y > w ? 8 : 0)
+                    | (z < -w ? 16 : 0) | (z > w ? 32 : 0);
+        }
+        return outside;
+    }
+
+    /**
+     * Encapsulates the OpenGL ES instructions for drawing this page. Does not allocate, so it can
+     * be called for every eye of every frame without causing garbage collections.
      *
      * @param perspective
      * @param view
+     * @param lightPosInEyeSpace
+     * @param level Level of detail to draw, see {@link #chooseLevel}.
      */
-    public void draw(float[] perspective, float[] view) {
-        mPositionParam = GLES20.glGetAttribLocation(mGlProgram, "a_Position");
-        mNormalParam = GLES20.glGetAttribLocation(mGlProgram, "a_Normal");
-        mColorParam = GLES20.glGetAttribLocation(mGlProgram, "a_Color");
-        mModelViewProjectionParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVP");
-        mIsFloorParam = GLES20.glGetUniformLocation(mGlProgram, "u_IsFloor");
-        mModelParam = GLES20.glGetUniformLocation(mGlProgram, "u_Model");
-        mModelViewParam = GLES20.glGetUniformLocation(mGlProgram, "u_MVMatrix");
+    public void draw(float[] perspective, float[] view, float[] lightPosInEyeSpace, int level) {
+        // Fall back to a coarser level while the chosen one is still uploading.
+        level = mMesh.getDrawableLevel(level);
+
+        // Animate over all the triangles every 30 seconds, limited to what is uploaded so far.
+        long time = SystemClock.uptimeMillis() % 30000L;
+        int numberOfIndicesToDraw = Math.round(mMesh.getLevelIndexCount(level) / 30000.0f * time);
+        numberOfIndicesToDraw = Math.min(numberOfIndicesToDraw,
+                mMesh.getUploadedIndexCount(level));
+        if (numberOfIndicesToDraw < 3) return;
+
+        mProgram.use();
+        VertexFormat format = mMesh.getFormat();
+
+        GLES20.glUniform3fv(mLightPosParam, 1, lightPosInEyeSpace, 0);
+
+        if (format == VertexFormat.SEGMENTS) {
+            GLES20.glUniform4f(mDequantizationParam, mMesh.getOriginX(), mMesh.getOriginY(),
+                    mMesh.getScaleX() * PageMesh.QUANTIZED_MAX,
+                    mMesh.getScaleY() * PageMesh.QUANTIZED_MAX);
+            GLES20.glUniform1f(mWidthScaleParam, mStrokeWidthScale);
+            GLES20.glUniform1f(mMinWidthParam, PageMesh.MIN_STROKE_WIDTH);
+        }
 
         // This is not the floor!
         GLES20.glUniform1f(mIsFloorParam, 0f);
@@ -189,76 +380,21 @@ public class Page {
 
         // Build the ModelView and ModelViewProjection matrices
         // for calculating cube position and light.
-        float[] modelView = new float[16];
-        float[] modelViewProjection = new float[16];
-        Matrix.multiplyMM(modelView, 0, view, 0, mModel, 0);
-        Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+        Matrix.multiplyMM(mModelView, 0, view, 0, mModel, 0);
+        Matrix.multiplyMM(mModelViewProjection, 0, perspective, 0, mModelView, 0);
 
         // Set the ModelView in the shader, used to calculate lighting
-        GLES20.glUniformMatrix4fv(mModelViewParam, 1, false, modelView, 0);
-
-        // Set the position of the cube
-        GLES20.glVertexAttribPointer(mPositionParam, COORDS_PER_VERTEX, GLES20.GL_FLOAT,
-                false, 0, mPageVertices);
+        GLES20.glUniformMatrix4fv(mModelViewParam, 1, false, mModelView, 0);
 
         // Set the ModelViewProjection matrix in the shader.
-        GLES20.glUniformMatrix4fv(mModelViewProjectionParam, 1, false, modelViewProjection, 0);
-
-        // Set the normal positions of the cube, again for shading
-        GLES20.glVertexAttribPointer(mNormalParam, 3, GLES20.GL_FLOAT,
-                false, 0, mPageNormals);
-
-        GLES20.glVertexAttribPointer(mColorParam, 4, GLES20.GL_FLOAT, false,
-                0, mPageColors);
-
-        // Animate over all the paths every 30 seconds.
-        long time = SystemClock.uptimeMillis() % 30000L;
-        int numberOfPathsToDraw = Math.round(mNumberOfPaths / 30000.0f * time);
+        GLES20.glUniformMatrix4fv(mModelViewProjectionParam, 1, false, mModelViewProjection, 0);
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, numberOfPathsToDraw * 6);
-    }
-
-    /**
-     * Decodes an input stream from a file into Path objects that can be used to draw the page.
-     */
-    private static ArrayList<Path> pathsFromSamplePageInputStream(InputStream inputStream) {
-        ArrayList<Path> paths = new ArrayList<Path>();
-        try {
-            // Retrieve a byte array from the sample page.
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = inputStream.read(buffer)) > -1) {
-                baos.write(buffer, 0, len);
-            }
-            baos.flush();
-            byte[] byteArray = baos.toByteArray();
-
-            // Decode the path data from the sample page.
-            String rawString = EncodingUtils.getAsciiString(byteArray);
-            int startIndex = rawString.indexOf("<</Length 13 0 R/Filter /FlateDecode>>") + 46;
-            int endIndex = rawString.indexOf("endstream", startIndex) - 1;
-            byte []flateEncodedByteArray = Arrays.copyOfRange(byteArray, startIndex, endIndex);
-            net.sf.andpdf.nio.ByteBuffer flateEncodedBuffer = net.sf.andpdf.nio.ByteBuffer.NEW(flateEncodedByteArray);
-            net.sf.andpdf.nio.ByteBuffer decodedBuffer = FlateDecode.decode(null, flateEncodedBuffer, null);
-            String decodedString = new String(decodedBuffer.array(),"UTF-8");
-
-            // Break every line of the decoded string into usable objects.
-            String[] stringArray = decodedString.split("\\r?\\n");
-            for(int i = 0; i < stringArray.length; i++) {
-                String[] components = stringArray[i].split(" ");
-                Path path = new Path();
-                path.y1 = Float.valueOf(components[2]);
-                path.x1 = Float.valueOf(components[3]);
-                path.y2 = Float.valueOf(components[5]);
-                path.x2 = Float.valueOf(components[6]);
-                path.width = Float.valueOf(components[0]);
-                paths.add(path);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // Use the same normal and color for every vertex.
+        GLES20.glVertexAttrib3fv(mNormalParam, NORMAL, 0);
+        GLES20.glVertexAttrib4fv(mColorParam, COLOR, 0);
 
-        return paths;
+        format.enable(mAttributeParams);
+        mMesh.draw(mAttributeParams, level, numberOfIndicesToDraw);
+        format.disable(mAttributeParams);
     }
 }
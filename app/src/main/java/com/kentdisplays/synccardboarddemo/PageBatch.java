@@ -0,0 +1,466 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.SystemClock;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws all pages of the scene from one shared pair of GL buffers, in a single draw call per eye
+ * when the visible pages are drawn at the same level of detail.
+ *
+ * Every vertex holds its quantized position, the slot of its page and how far into its level it
+ * lies. The model matrices of the pages are passed as a uniform array that the vertex shader
+ * picks from by slot. The indices are stored level by level and within a level page by page, all
+ * joined into triangle strips by degenerate triangles, so the pages drawn at the same level are
+ * one contiguous range. Without 32 bit indices the buffers are split into chunks of at most
+ * {@link PageMesh#MAX_CHUNK_VERTICES}, like the meshes are, and a range is drawn once per chunk
+ * it spans.
+ *
+ * A batch is built on a worker thread with {@link #build}, and uploaded on the GL thread by the
+ * {@link MeshUploader} like a mesh. The meshes of the pages keep their client side copies, which
+ * the {@link PageCache} counts anyway, so the next batch is copied from them again instead of
+ * tessellating every page whenever one changes.
+ */
+public class PageBatch implements MeshUploader.Uploadable {
+
+    /**
+     * Largest number of pages in a batch, the length of u_Models in batch_vertex.
+     */
+    public static final int MAX_PAGES = 4;
+
+    private static final String UINT_INDICES_EXTENSION = "GL_OES_element_index_uint";
+
+    // Position as normalized shorts, then page slot and order as shorts.
+    private static final int STRIDE = 8;
+    private static final int ORDER_MAX = Short.MAX_VALUE;
+
+    // Every vertex of a page has the same normal and color, see Page.
+    private static final float[] NORMAL = {0.0f, 0.0f, 1.0f};
+    private static final float[] COLOR = {0.2f, 0.709803922f, 0.898039216f, 1.0f};
+
+    private final ShaderProgram mProgram;
+    private final int mPositionParam;
+    private final int mPageParam;
+    private final int mOrderParam;
+    private final int mNormalParam;
+    private final int mColorParam;
+    private final int mModelsParam;
+    private final int mViewParam;
+    private final int mProjectionParam;
+    private final int mLightPosParam;
+    private final int mRevealParam;
+
+    // Pages the buffers were built from, by slot.
+    private final Page[] mPages = new Page[MAX_PAGES];
+    private final float[] mModels = new float[16 * MAX_PAGES];
+    // First index and index count of every level of every page, at [level * MAX_PAGES + slot].
+    private final int[] mRangeFirst = new int[PageMesh.LEVEL_COUNT * MAX_PAGES];
+    private final int[] mRangeCount = new int[PageMesh.LEVEL_COUNT * MAX_PAGES];
+    // First vertex and first index of every chunk, with the totals as a last entry.
+    private final int[] mChunkFirstVertex;
+    private final int[] mChunkFirstIndex;
+    private final int mIndexType;
+    private final int mIndexSize;
+
+    // Client side copies of the vertices and indices, null once uploaded.
+    private ByteBuffer mVertexData;
+    private ByteBuffer mIndexData;
+    private final int mVertexBytes;
+    private final int mIndexBytes;
+
+    // GL buffer objects for vertices and indices, 0 until created.
+    private final int[] mBuffers = new int[2];
+    private int mUploadedVertexBytes;
+    private int mUploadedIndexBytes;
+    private int mDrawCalls;
+
+    /**
+     * Returns whether the GL context supports 32 bit indices, so a batch need not be split into
+     * chunks. Must be called on the GL thread.
+     */
+    public static boolean supportsUintIndices() {
+        String extensions = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(UINT_INDICES_EXTENSION);
+    }
+
+    /**
+     * Copies the meshes of the pages of the scene into the vertices and indices of a new batch.
+     * Called on a worker thread.
+     *
+     * @param pages Pages by slot, null for empty slots. Their meshes must be made of strips and
+     *              still hold their client side copies.
+     * @param program Program linked from batch_vertex and batch_fragment.
+     * @param uintIndices Whether 32 bit indices can be drawn, see {@link #supportsUintIndices()}.
+     */
+    public static PageBatch build(Page[] pages, ShaderProgram program, boolean uintIndices) {
+        PageMesh[] meshes = new PageMesh[MAX_PAGES];
+        ByteBuffer[] vertices = new ByteBuffer[MAX_PAGES];
+        ShortBuffer[] indices = new ShortBuffer[MAX_PAGES];
+        for (int slot = 0; slot < MAX_PAGES && slot < pages.length; slot++) {
+            if (pages[slot] == null) continue;
+            PageMesh mesh = pages[slot].getMesh();
+            vertices[slot] = mesh.getVertexData();
+            indices[slot] = mesh.getIndices();
+            if (mesh.getFormat() != VertexFormat.STRIPS
+                    || mesh.getLevelCount() != PageMesh.LEVEL_COUNT
+                    || vertices[slot] == null || indices[slot] == null) {
+                throw new IllegalArgumentException("Page " + slot + " can not be batched");
+            }
+            meshes[slot] = mesh;
+        }
+        return new PageBatch(pages, program, uintIndices, meshes, vertices, indices);
+    }
+
+    private PageBatch(Page[] pages, ShaderProgram program, boolean uintIndices,
+                      PageMesh[] meshes, ByteBuffer[] vertices, ShortBuffer[] indices) {
+        mProgram = program;
+        mPositionParam = program.getAttribute("a_Position");
+        mPageParam = program.getAttribute("a_Page");
+        mOrderParam = program.getAttribute("a_Order");
+        mNormalParam = program.getAttribute("a_Normal");
+        mColorParam = program.getAttribute("a_Color");
+        mModelsParam = program.getUniform("u_Models");
+        mViewParam = program.getUniform("u_View");
+        mProjectionParam = program.getUniform("u_Projection");
+        mLightPosParam = program.getUniform("u_LightPos");
+        mRevealParam = program.getUniform("u_Reveal");
+
+        int vertexCount = 0;
+        int indexCount = 0;
+        int meshChunkCount = 0;
+        for (int slot = 0; slot < MAX_PAGES; slot++) {
+            PageMesh mesh = meshes[slot];
+            if (mesh == null) continue;
+            mPages[slot] = pages[slot];
+            // The placement of the page, with the dequantization of the mesh copied here.
+            Matrix.multiplyMM(mModels, slot * 16, pages[slot].getPlacement(), 0,
+                    mesh.getDequantization(), 0);
+            vertexCount += mesh.getVertexCount();
+            // Every chunk is joined to the strip before it by two more indices.
+            indexCount += mesh.getIndexCount() + 2 * mesh.getChunkCount();
+            meshChunkCount += mesh.getChunkCount();
+        }
+
+        boolean wide = uintIndices && vertexCount > PageMesh.MAX_CHUNK_VERTICES;
+        mIndexType = wide ? GLES20.GL_UNSIGNED_INT : GLES20.GL_UNSIGNED_SHORT;
+        mIndexSize = wide ? 4 : 2;
+        int chunkLimit = wide ? Integer.MAX_VALUE : PageMesh.MAX_CHUNK_VERTICES;
+
+        ByteBuffer vertexData = ByteBuffer.allocateDirect(vertexCount * STRIDE)
+                .order(ByteOrder.nativeOrder());
+        ByteBuffer indexData = ByteBuffer.allocateDirect(indexCount * mIndexSize)
+                .order(ByteOrder.nativeOrder());
+        // Every mesh chunk fits into a batch chunk, so there are never more batch chunks, but
+        // there is one even if all pages are empty.
+        int[] chunkFirstVertex = new int[Math.max(meshChunkCount, 1) + 1];
+        int[] chunkFirstIndex = new int[Math.max(meshChunkCount, 1) + 1];
+        int chunk = 0;
+
+        // Level major, so the pages drawn at the same level follow each other.
+        int last = -1;
+        for (int level = 0; level < PageMesh.LEVEL_COUNT; level++) {
+            for (int slot = 0; slot < MAX_PAGES; slot++) {
+                int range = level * MAX_PAGES + slot;
+                mRangeFirst[range] = indexData.position() / mIndexSize;
+                PageMesh mesh = meshes[slot];
+                if (mesh == null) continue;
+
+                int levelFirst = mesh.getChunkFirstVertex(mesh.getLevelFirstChunk(level));
+                int levelEnd = mesh.getChunkFirstVertex(mesh.getLevelEndChunk(level));
+                float orderScale = (float) ORDER_MAX / Math.max(1, levelEnd - levelFirst - 1);
+                for (int meshChunk = mesh.getLevelFirstChunk(level);
+                        meshChunk < mesh.getLevelEndChunk(level); meshChunk++) {
+                    int first = mesh.getChunkFirstVertex(meshChunk);
+                    int end = mesh.getChunkFirstVertex(meshChunk + 1);
+                    int vertex = vertexData.position() / STRIDE;
+                    if (vertex + end - first - chunkFirstVertex[chunk] > chunkLimit) {
+                        // Start a new chunk, the strips are not joined across chunks.
+                        chunk++;
+                        chunkFirstVertex[chunk] = vertex;
+                        chunkFirstIndex[chunk] = indexData.position() / mIndexSize;
+                        last = -1;
+                    }
+                    putVertices(vertices[slot], first, end, slot, levelFirst, orderScale,
+                            vertexData);
+                    last = putIndices(mesh, indices[slot], meshChunk,
+                            vertex - chunkFirstVertex[chunk], last, range, indexData);
+                }
+                mRangeCount[range] = indexData.position() / mIndexSize - mRangeFirst[range];
+            }
+        }
+        chunk++;
+        chunkFirstVertex[chunk] = vertexData.position() / STRIDE;
+        chunkFirstIndex[chunk] = indexData.position() / mIndexSize;
+        mChunkFirstVertex = Arrays.copyOf(chunkFirstVertex, chunk + 1);
+        mChunkFirstIndex = Arrays.copyOf(chunkFirstIndex, chunk + 1);
+
+        mVertexBytes = vertexData.position();
+        mIndexBytes = indexData.position();
+        if (mVertexBytes > 0 && mIndexBytes > 0) {
+            mVertexData = vertexData;
+            mIndexData = indexData;
+        }
+    }
+
+    /**
+     * Copies vertices of a mesh, adding the slot and the order of every vertex within its level.
+     */
+    private static void putVertices(ByteBuffer data, int first, int end, int slot,
+                                    int levelFirst, float orderScale, ByteBuffer vertices) {
+        int stride = VertexFormat.STRIPS.stride;
+        for (int v = first; v < end; v++) {
+            vertices.putShort(data.getShort(v * stride));
+            vertices.putShort(data.getShort(v * stride + 2));
+            vertices.putShort((short) slot);
+            vertices.putShort((short) Math.round((v - levelFirst) * orderScale));
+        }
+    }
+
+    /**
+     * Appends the indices of a chunk of a mesh, rebased onto the shared vertices. The chunk is
+     * joined to the strip before it by repeating the last index of that strip and the first of
+     * the chunk. The range starts after the indices that join it to the previous range, so a
+     * range drawn on its own does not reach into another page.
+     *
+     * @param base Vertex of the batch chunk the first vertex of the mesh chunk was copied to.
+     * @param last Last index written to the batch chunk so far, or -1 if there is none.
+     * @param range Range of the level, whose first index is set.
+     * @return the last index written.
+     */
+    private int putIndices(PageMesh mesh, ShortBuffer source, int chunk, int base, int last,
+                           int range, ByteBuffer indices) {
+        int first = mesh.getChunkFirstIndex(chunk);
+        int end = mesh.getChunkFirstIndex(chunk + 1);
+        if (end == first) return last;
+        boolean rangeStart = indices.position() / mIndexSize == mRangeFirst[range];
+        if (last >= 0) {
+            putIndex(indices, last);
+            putIndex(indices, base + (source.get(first) & 0xffff));
+        }
+        if (rangeStart) mRangeFirst[range] = indices.position() / mIndexSize;
+        for (int i = first; i < end; i++) {
+            putIndex(indices, base + (source.get(i) & 0xffff));
+        }
+        return base + (source.get(end - 1) & 0xffff);
+    }
+
+    private void putIndex(ByteBuffer indices, int index) {
+        if (mIndexType == GLES20.GL_UNSIGNED_INT) {
+            indices.putInt(index);
+        } else {
+            indices.putShort((short) index);
+        }
+    }
+
+    public ShaderProgram getProgram() {
+        return mProgram;
+    }
+
+    /**
+     * Returns the pages of the batch by slot. Must not be modified.
+     */
+    public Page[] getPages() {
+        return mPages;
+    }
+
+    /**
+     * Returns the number of draw calls made by the last {@link #draw}, for debugging.
+     */
+    public int getDrawCalls() {
+        return mDrawCalls;
+    }
+
+    @Override
+    public boolean needsUpload() {
+        return mVertexData != null;
+    }
+
+    /**
+     * Returns true once the batch can be drawn.
+     */
+    public boolean isUploaded() {
+        return mVertexData == null;
+    }
+
+    /**
+     * Copies the next vertices into the GL buffers, then the indices, creating the buffers on the
+     * first call. Must be called on the GL thread. The client side copies are released after the
+     * last part.
+     *
+     * @param maxVertices Largest number of vertices to upload, the indices are uploaded in parts
+     *                    of as many bytes.
+     * @return true once the whole batch is uploaded.
+     */
+    @Override
+    public boolean uploadChunk(int maxVertices) {
+        if (mVertexData == null) return true;
+        if (mBuffers[0] == 0) {
+            GLES20.glGenBuffers(mBuffers.length, mBuffers, 0);
+        }
+
+        int budget = maxVertices * STRIDE;
+        if (mUploadedVertexBytes < mVertexBytes) {
+            mUploadedVertexBytes += uploadBytes(GLES20.GL_ARRAY_BUFFER, mBuffers[0], mVertexData,
+                    mVertexBytes, mUploadedVertexBytes, budget);
+            return false;
+        }
+        mUploadedIndexBytes += uploadBytes(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[1],
+                mIndexData, mIndexBytes, mUploadedIndexBytes, budget);
+        if (mUploadedIndexBytes < mIndexBytes) return false;
+
+        mVertexData = null;
+        mIndexData = null;
+        return true;
+    }
+
+    /**
+     * Copies the next bytes of the data into a buffer, at most budget of them, allocating the
+     * buffer first when nothing was copied yet.
+     *
+     * @param size Number of bytes of the data to copy in all.
+     * @param offset Number of bytes copied so far.
+     * @return the number of bytes copied.
+     */
+    private static int uploadBytes(int target, int buffer, ByteBuffer data, int size, int offset,
+                                   int budget) {
+        int count = Math.min(budget, size - offset);
+        GLES20.glBindBuffer(target, buffer);
+        if (offset == 0) {
+            GLES20.glBufferData(target, size, null, GLES20.GL_STATIC_DRAW);
+        }
+        data.position(offset);
+        GLES20.glBufferSubData(target, offset, count, data);
+        data.position(0);
+        GLES20.glBindBuffer(target, 0);
+        return count;
+    }
+
+    /**
+     * Draws the pages for an eye, once the batch is uploaded. Ranges of pages at the same level
+     * that follow each other in the index buffer are drawn together. Does not allocate.
+     *
+     * @param perspective Projection of the eye.
+     * @param view View matrix of the eye.
+     * @param lightPosInEyeSpace
+     * @param levels Level of detail of every slot, see {@link Page#chooseLevel}, or -1 to skip
+     *               the page.
+     */
+    public void draw(float[] perspective, float[] view, float[] lightPosInEyeSpace,
+                     int[] levels) {
+        mDrawCalls = 0;
+        if (!isUploaded() || mBuffers[0] == 0) return;
+
+        // The previous batch may have been drawn with the same program, so the model matrices
+        // are set every time.
+        mProgram.use();
+        GLES20.glUniformMatrix4fv(mModelsParam, MAX_PAGES, false, mModels, 0);
+        GLES20.glUniformMatrix4fv(mViewParam, 1, false, view, 0);
+        GLES20.glUniformMatrix4fv(mProjectionParam, 1, false, perspective, 0);
+        GLES20.glUniform3fv(mLightPosParam, 1, lightPosInEyeSpace, 0);
+
+        // Reveal all the strokes every 30 seconds, like Page does.
+        long time = SystemClock.uptimeMillis() % 30000L;
+        GLES20.glUniform1f(mRevealParam, time / 30000.0f);
+
+        // Use the same normal and color for every vertex.
+        GLES20.glVertexAttrib3fv(mNormalParam, NORMAL, 0);
+        GLES20.glVertexAttrib4fv(mColorParam, COLOR, 0);
+
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0]);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[1]);
+        GLES20.glEnableVertexAttribArray(mPositionParam);
+        GLES20.glEnableVertexAttribArray(mPageParam);
+        GLES20.glEnableVertexAttribArray(mOrderParam);
+
+        int runFirst = 0;
+        int runEnd = 0;
+        for (int level = 0; level < PageMesh.LEVEL_COUNT; level++) {
+            for (int slot = 0; slot < MAX_PAGES; slot++) {
+                int range = level * MAX_PAGES + slot;
+                if (mRangeCount[range] == 0) continue;
+                if (levels[slot] != level) {
+                    // Empty ranges do not interrupt a run, skipped pages do.
+                    drawRange(runFirst, runEnd);
+                    runFirst = runEnd = 0;
+                    continue;
+                }
+                if (runEnd == 0) runFirst = mRangeFirst[range];
+                runEnd = mRangeFirst[range] + mRangeCount[range];
+            }
+        }
+        drawRange(runFirst, runEnd);
+
+        GLES20.glDisableVertexAttribArray(mPositionParam);
+        GLES20.glDisableVertexAttribArray(mPageParam);
+        GLES20.glDisableVertexAttribArray(mOrderParam);
+
+        // The floor is drawn from client side arrays.
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Draws a range of indices, one draw call for every chunk it spans.
+     */
+    private void drawRange(int first, int end) {
+        for (int chunk = 0; chunk < mChunkFirstIndex.length - 1; chunk++) {
+            int chunkFirst = Math.max(first, mChunkFirstIndex[chunk]);
+            int chunkEnd = Math.min(end, mChunkFirstIndex[chunk + 1]);
+            if (chunkEnd - chunkFirst < 3) continue;
+
+            int offset = mChunkFirstVertex[chunk] * STRIDE;
+            GLES20.glVertexAttribPointer(mPositionParam, 2, GLES20.GL_SHORT, true, STRIDE,
+                    offset);
+            GLES20.glVertexAttribPointer(mPageParam, 1, GLES20.GL_SHORT, false, STRIDE,
+                    offset + 4);
+            GLES20.glVertexAttribPointer(mOrderParam, 1, GLES20.GL_SHORT, true, STRIDE,
+                    offset + 6);
+            GLES20.glDrawElements(GLES20.GL_TRIANGLE_STRIP, chunkEnd - chunkFirst, mIndexType,
+                    chunkFirst * mIndexSize);
+            mDrawCalls++;
+        }
+    }
+
+    /**
+     * Deletes the GL buffers once the batch is replaced by a newer one. Must be called on the GL
+     * thread.
+     */
+    public void release() {
+        if (mBuffers[0] != 0) {
+            GLES20.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+        }
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = 0;
+        }
+        mVertexData = null;
+        mIndexData = null;
+    }
+}
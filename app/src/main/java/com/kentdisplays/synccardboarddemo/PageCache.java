@@ -0,0 +1,113 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Least recently used cache of prepared page meshes, limited to a number of bytes. Pages are keyed
+ * by file identity so a page is only decoded and tessellated again when its file changes, and the
+ * same mesh is shared when a file is shown in more than one slot. Hit and miss counters are
+ * reported by {@link #toString()}.
+ */
+public class PageCache extends LruCache<PageCache.Key, PageMesh> {
+
+    /**
+     * Identity of the file a page was loaded from: its name, modification time and size.
+     */
+    public static final class Key {
+        private final String mName;
+        private final long mModified;
+        private final long mLength;
+
+        public Key(String name, long modified, long length) {
+            mName = name;
+            mModified = modified;
+            mLength = length;
+        }
+
+        public static Key forFile(File file) {
+            return new Key(file.getPath(), file.lastModified(), file.length());
+        }
+
+        /**
+         * Bundled resources never change while the app is installed.
+         */
+        public static Key forResource(int resId) {
+            return new Key("res:" + resId, 0, 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return mModified == key.mModified && mLength == key.mLength && mName.equals(key.mName);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mName.hashCode();
+            result = 31 * result + (int) (mModified ^ (mModified >>> 32));
+            result = 31 * result + (int) (mLength ^ (mLength >>> 32));
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return mName;
+        }
+    }
+
+    // Meshes that left the cache, whose GL buffers are deleted on the GL thread.
+    private final ConcurrentLinkedQueue<PageMesh> mRemoved = new ConcurrentLinkedQueue<PageMesh>();
+
+    /**
+     * @param maxBytes Budget for the strokes and vertex buffers of all cached pages.
+     */
+    public PageCache(int maxBytes) {
+        super(maxBytes);
+    }
+
+    @Override
+    protected int sizeOf(Key key, PageMesh mesh) {
+        return mesh.getSizeInBytes();
+    }
+
+    @Override
+    protected void entryRemoved(boolean evicted, Key key, PageMesh oldValue, PageMesh newValue) {
+        if (oldValue != newValue) mRemoved.add(oldValue);
+    }
+
+    /**
+     * Returns the next mesh that was evicted or replaced since the last call, or null if there is
+     * none. The mesh may still be shown in a slot.
+     */
+    public PageMesh pollRemoved() {
+        return mRemoved.poll();
+    }
+}
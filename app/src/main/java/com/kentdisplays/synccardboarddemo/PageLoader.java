@@ -0,0 +1,211 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Prepares pages on a pool of background threads and hands them to the GL thread once they are
+ * ready. Decoding and tessellation never block rendering; a slot simply stays empty until its page
+ * has been installed. Meshes are taken from and added to a {@link PageCache}, and cached meshes
+ * that lost their GL buffers with the context are rebuilt from their strokes. When the pages are
+ * drawn as a {@link PageBatch}, the batch is built here too.
+ */
+public class PageLoader {
+
+    private static final String TAG = PageLoader.class.getSimpleName();
+
+    /**
+     * Source of the mesh for a page, called on a worker thread.
+     */
+    public interface Source {
+        PageMesh loadMesh() throws IOException;
+    }
+
+    // The page itself is created on the GL thread, with the program of the current context.
+    private static final class Result {
+        final int slot;
+        final int generation;
+        final PageMesh mesh;
+        final PageCache.Key key;
+        final Source source;
+
+        Result(int slot, int generation, PageMesh mesh, PageCache.Key key, Source source) {
+            this.slot = slot;
+            this.generation = generation;
+            this.mesh = mesh;
+            this.key = key;
+            this.source = source;
+        }
+    }
+
+    private final PageCache mCache;
+    private final ExecutorService mExecutor;
+    private final ConcurrentLinkedQueue<Result> mReady;
+    private final AtomicIntegerArray mGenerations;
+    private final AtomicInteger mBatchGeneration = new AtomicInteger();
+    private final AtomicReference<PageBatch> mReadyBatch = new AtomicReference<PageBatch>();
+    private final long mStartTime;
+
+    public PageLoader(int slotCount, PageCache cache) {
+        mCache = cache;
+        int threads = Math.max(1, Math.min(slotCount, Runtime.getRuntime().availableProcessors()));
+        mExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, "PageLoader-" + mCount.incrementAndGet());
+            }
+        });
+        mReady = new ConcurrentLinkedQueue<Result>();
+        mGenerations = new AtomicIntegerArray(slotCount);
+        mStartTime = SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Starts preparing a page for a slot. A later request for the same slot replaces this one,
+     * even if it finishes first.
+     *
+     * @param key Identity of the file the page is loaded from.
+     * @param source Called on a worker thread when the page is not cached.
+     */
+    public void load(final int slot, final PageCache.Key key, final Source source) {
+        final int generation = mGenerations.incrementAndGet(slot);
+
+        PageMesh cached = mCache.get(key);
+        if (cached != null && !cached.isLost()) {
+            mReady.add(new Result(slot, generation, cached, key, source));
+            return;
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mGenerations.get(slot) != generation) return;
+                try {
+                    long start = SystemClock.uptimeMillis();
+                    PageMesh mesh = mCache.get(key);
+                    if (mesh != null && mesh.isLost()) {
+                        mesh = mesh.rebuild();
+                        mCache.put(key, mesh);
+                    } else if (mesh == null) {
+                        mesh = source.loadMesh();
+                        mCache.put(key, mesh);
+                    }
+                    Log.d(TAG, "Prepared page " + slot + " (" + key + ") in "
+                            + (SystemClock.uptimeMillis() - start) + " ms, " + mCache);
+                    mReady.add(new Result(slot, generation, mesh, key, source));
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not load page " + slot, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Moves every page that has finished preparing into its slot. Must be called on the GL
+     * thread.
+     *
+     * @param program Program of the current GL context for the vertex format of the meshes.
+     * @return true if any slot changed.
+     */
+    public boolean installReadyPages(Page[] slots, ShaderProgram program) {
+        boolean changed = false;
+        Result result;
+        while ((result = mReady.poll()) != null) {
+            if (mGenerations.get(result.slot) != result.generation) continue;
+            if (result.mesh.isLost()) {
+                // The mesh was evicted and its buffers deleted while the page waited here.
+                load(result.slot, result.key, result.source);
+                continue;
+            }
+            slots[result.slot] = new Page(result.mesh, program, result.slot);
+            changed = true;
+            Log.d(TAG, "Installed page " + result.slot + " "
+                    + (SystemClock.uptimeMillis() - mStartTime) + " ms after start");
+        }
+        return changed;
+    }
+
+    /**
+     * Starts building a batch of the pages in the slots. A later request replaces this one, even
+     * if it finishes first.
+     *
+     * @param pages Pages by slot, copied so the slots may change meanwhile.
+     * @param uintIndices Whether 32 bit indices can be drawn, see
+     *                    {@link PageBatch#supportsUintIndices()}.
+     */
+    public void loadBatch(Page[] pages, final ShaderProgram program, final boolean uintIndices) {
+        final int generation = mBatchGeneration.incrementAndGet();
+        final Page[] snapshot = pages.clone();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mBatchGeneration.get() != generation) return;
+                long start = SystemClock.uptimeMillis();
+                PageBatch batch = PageBatch.build(snapshot, program, uintIndices);
+                synchronized (mReadyBatch) {
+                    // Checked under the lock, so an older batch never replaces a newer one.
+                    if (mBatchGeneration.get() != generation) return;
+                    mReadyBatch.set(batch);
+                }
+                Log.d(TAG, "Built page batch in " + (SystemClock.uptimeMillis() - start)
+                        + " ms");
+            }
+        });
+    }
+
+    /**
+     * Returns the batch built last since the previous call, or null if there is none. Must be
+     * called on the GL thread.
+     */
+    public PageBatch takeReadyBatch() {
+        return mReadyBatch.getAndSet(null);
+    }
+
+    /**
+     * Stops the worker threads, pending requests are dropped.
+     */
+    public void shutdown() {
+        mExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,465 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Decoded strokes of a page together with the indexed vertices drawn for them. A mesh does not
+ * know where it is placed in the world, so the same mesh can be shared by several {@link Page}
+ * objects.
+ *
+ * The layout of the vertices is given by a {@link VertexFormat}. Either they are triangle strips
+ * tessellated on the CPU, or each segment is stored as a quad whose corners the vertex shader
+ * places. Positions are quantized to normalized 16 bit integers over the bounds of the mesh,
+ * {@link #getDequantization()} maps them back to page coordinates. Normal and color are the same
+ * for the whole page and are not part of the vertices.
+ *
+ * Indices are 16 bit, so the vertices are split into chunks of at most {@link #MAX_CHUNK_VERTICES}
+ * and the indices of each chunk count from the first vertex of that chunk.
+ *
+ * The strokes are tessellated at {@link #LEVEL_COUNT} levels of detail, each simplified with a
+ * larger tolerance than the one before, see {@link PolylineSimplifier}. Level 0 holds every
+ * segment. Every level has chunks of its own, and the levels are stored from the coarsest to the
+ * finest so the coarse ones are uploaded first.
+ *
+ * The vertex data is copied into GL buffer objects in steps with {@link #uploadChunk(int)}, and
+ * only the indices whose vertices are uploaded so far are drawn. Once the whole mesh is uploaded
+ * the client side copies of the vertices and indices are released, only the GL buffers and the
+ * strokes are kept. Should the GL context be lost after that, the mesh is rebuilt from its
+ * strokes with {@link #rebuild()}.
+ *
+ * A {@link StrokeIndex} over the strokes is built with the mesh, so it is created on the thread
+ * that loads the page and cached along with it.
+ */
+public class PageMesh implements MeshUploader.Uploadable {
+
+    /**
+     * Largest number of vertices a chunk may hold so it can be addressed by unsigned shorts.
+     */
+    public static final int MAX_CHUNK_VERTICES = 65536;
+
+    /**
+     * Page units per digitizer unit of stroke width.
+     */
+    public static final float STROKE_WIDTH_SCALE = 1 / 3000f;
+
+    /**
+     * Width of the thinnest stroke drawn, in page units.
+     */
+    public static final float MIN_STROKE_WIDTH = 0.013f;
+
+    /**
+     * Largest magnitude of a quantized coordinate.
+     */
+    public static final int QUANTIZED_MAX = Short.MAX_VALUE;
+
+    /**
+     * Number of levels of detail in a mesh.
+     */
+    public static final int LEVEL_COUNT = 4;
+
+    private final StrokeData mStrokes;
+    private final StrokeIndex mStrokeIndex;
+    private final int mVertexCount;
+    private final int mIndexCount;
+
+    private final VertexFormat mFormat;
+    // Client side copies of the vertices and indices, null once uploaded.
+    private ByteBuffer mVertexData;
+    private ShortBuffer mIndices;
+    private final int mSizeInBytes;
+
+    // Page coordinates of the center of the bounds and of one quantization step.
+    private final float mOriginX;
+    private final float mOriginY;
+    private final float mScaleX;
+    private final float mScaleY;
+    private final float[] mDequantization = new float[16];
+
+    // First vertex and first index of every chunk, with the totals as a last entry.
+    private final int[] mChunkFirstVertex;
+    private final int[] mChunkFirstIndex;
+    // First chunk of every level in the order they are stored, coarsest first, with the chunk
+    // count as a last entry.
+    private final int[] mLevelFirstChunk;
+
+    // GL buffer objects for vertices and indices, 0 until created.
+    private final int[] mBuffers = new int[2];
+    private int mUploadedVertices;
+    private int mUploadedIndices;
+    private int mUploadChunk;
+    // Set when the GL buffers are lost after the client side copies were released.
+    private volatile boolean mLost;
+
+    /**
+     * Wraps tessellated vertex data, see {@link StrokeMeshBuilder} and {@link MeshFile}.
+     *
+     * @param strokes Segments the vertex data was built from.
+     * @param format Layout of the vertex data.
+     * @param vertexData Interleaved vertices in native byte order.
+     * @param origin Page coordinates of a quantized (0, 0), x then y.
+     * @param scale Page coordinates of one quantization step, x then y.
+     * @param chunkFirstVertex First vertex of each chunk followed by the vertex count.
+     * @param chunkFirstIndex First index of each chunk followed by the index count.
+     * @param levelFirstChunk First chunk of each level from the coarsest to level 0, followed by
+     *                        the chunk count.
+     */
+    PageMesh(StrokeData strokes, VertexFormat format, ByteBuffer vertexData, float[] origin,
+             float[] scale, ShortBuffer indices, int[] chunkFirstVertex, int[] chunkFirstIndex,
+             int[] levelFirstChunk) {
+        mStrokes = strokes;
+        mStrokeIndex = new StrokeIndex(strokes);
+        mFormat = format;
+        mVertexData = vertexData;
+        mIndices = indices;
+        mOriginX = origin[0];
+        mOriginY = origin[1];
+        mScaleX = scale[0];
+        mScaleY = scale[1];
+        mChunkFirstVertex = chunkFirstVertex;
+        mChunkFirstIndex = chunkFirstIndex;
+        mLevelFirstChunk = levelFirstChunk;
+        mVertexCount = chunkFirstVertex[chunkFirstVertex.length - 1];
+        mIndexCount = chunkFirstIndex[chunkFirstIndex.length - 1];
+        // Vertex data counts the same whether it is held here or in GL buffers, so the size in
+        // the page cache does not change.
+        mSizeInBytes = strokes.x1.length * 5 * 4 + mStrokeIndex.getSizeInBytes()
+                + vertexData.capacity() + indices.capacity() * 2;
+
+        // Normalized shorts arrive in the shader as q / QUANTIZED_MAX, and the page lies at z = 1.
+        // The column major matrix is filled in directly, since meshes are also built by the baker
+        // on the host, where the android.opengl classes can not be used.
+        mDequantization[0] = mScaleX * QUANTIZED_MAX;
+        mDequantization[5] = mScaleY * QUANTIZED_MAX;
+        mDequantization[10] = 1.0f;
+        mDequantization[12] = mOriginX;
+        mDequantization[13] = mOriginY;
+        mDequantization[14] = 1.0f;
+        mDequantization[15] = 1.0f;
+    }
+
+    public StrokeData getStrokes() {
+        return mStrokes;
+    }
+
+    /**
+     * Returns the spatial index over the strokes, to find the strokes near a point of the page.
+     */
+    public StrokeIndex getStrokeIndex() {
+        return mStrokeIndex;
+    }
+
+    public int getSegmentCount() {
+        return mStrokes.count;
+    }
+
+    public int getVertexCount() {
+        return mVertexCount;
+    }
+
+    public int getIndexCount() {
+        return mIndexCount;
+    }
+
+    VertexFormat getFormat() {
+        return mFormat;
+    }
+
+    /**
+     * Returns the vertices, or null once they were uploaded.
+     */
+    public ByteBuffer getVertexData() {
+        return mVertexData;
+    }
+
+    public float getOriginX() {
+        return mOriginX;
+    }
+
+    public float getOriginY() {
+        return mOriginY;
+    }
+
+    public float getScaleX() {
+        return mScaleX;
+    }
+
+    public float getScaleY() {
+        return mScaleY;
+    }
+
+    /**
+     * Returns the matrix that maps quantized positions, as normalized by GL, to page coordinates.
+     * Must not be modified.
+     */
+    public float[] getDequantization() {
+        return mDequantization;
+    }
+
+    /**
+     * Returns the indices, or null once they were uploaded.
+     */
+    public ShortBuffer getIndices() {
+        return mIndices;
+    }
+
+    public int getChunkCount() {
+        return mChunkFirstVertex.length - 1;
+    }
+
+    public int getChunkFirstVertex(int chunk) {
+        return mChunkFirstVertex[chunk];
+    }
+
+    public int getChunkFirstIndex(int chunk) {
+        return mChunkFirstIndex[chunk];
+    }
+
+    public int getLevelCount() {
+        return mLevelFirstChunk.length - 1;
+    }
+
+    /**
+     * Returns the first chunk of a level, where level 0 is the most detailed.
+     */
+    public int getLevelFirstChunk(int level) {
+        return mLevelFirstChunk[getLevelCount() - 1 - level];
+    }
+
+    /**
+     * Returns the chunk following the last chunk of a level.
+     */
+    public int getLevelEndChunk(int level) {
+        return mLevelFirstChunk[getLevelCount() - level];
+    }
+
+    public int getLevelIndexCount(int level) {
+        return mChunkFirstIndex[getLevelEndChunk(level)]
+                - mChunkFirstIndex[getLevelFirstChunk(level)];
+    }
+
+    /**
+     * Returns the number of leading indices whose vertices are already in the GL buffers.
+     */
+    public int getUploadedIndexCount() {
+        return mUploadedIndices;
+    }
+
+    /**
+     * Returns the number of leading indices of a level that are already in the GL buffers.
+     */
+    public int getUploadedIndexCount(int level) {
+        int first = mChunkFirstIndex[getLevelFirstChunk(level)];
+        return Math.max(0, Math.min(mUploadedIndices - first, getLevelIndexCount(level)));
+    }
+
+    /**
+     * Returns the most detailed level, but not more detailed than the one given, that is
+     * completely uploaded. While even the coarsest level is still uploading, that one is returned.
+     */
+    public int getDrawableLevel(int level) {
+        while (level < getLevelCount() - 1
+                && getUploadedIndexCount(level) < getLevelIndexCount(level)) {
+            level++;
+        }
+        return level;
+    }
+
+    @Override
+    public boolean needsUpload() {
+        return !isUploaded() && !isLost();
+    }
+
+    public boolean isUploaded() {
+        return mBuffers[0] != 0 && mUploadedIndices == mIndexCount;
+    }
+
+    /**
+     * Returns true when the GL buffers were lost with their context after the client side copies
+     * were released. The mesh can not be drawn again, see {@link #rebuild()}.
+     */
+    public boolean isLost() {
+        return mLost;
+    }
+
+    /**
+     * Tessellates the strokes again into a new mesh of the same format. Called on a worker thread
+     * for meshes that were lost.
+     */
+    public PageMesh rebuild() {
+        if (mFormat == VertexFormat.SEGMENTS) {
+            return SegmentMeshBuilder.build(mStrokes);
+        }
+        return StrokeMeshBuilder.tessellate(mStrokes);
+    }
+
+    /**
+     * Copies the next vertices, and the indices that only refer to uploaded vertices, into the GL
+     * buffers, creating them on the first call. Must be called on the GL thread. The client side
+     * copies are released after the last chunk.
+     *
+     * @param maxVertices Largest number of vertices to upload in this call.
+     * @return true once the whole mesh is uploaded, or when it is lost and can not be uploaded.
+     */
+    @Override
+    public boolean uploadChunk(int maxVertices) {
+        if (mVertexData == null) return true;
+        if (mBuffers[0] == 0) {
+            GLES20.glGenBuffers(mBuffers.length, mBuffers, 0);
+            allocateBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0], mVertexData.capacity());
+            allocateBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[1], mIndices.capacity() * 2);
+        }
+
+        int first = mUploadedVertices;
+        int count = Math.min(maxVertices, mVertexCount - first);
+        if (count > 0) {
+            mVertexData.position(first * mFormat.stride);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0]);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, first * mFormat.stride,
+                    count * mFormat.stride, mVertexData);
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            mVertexData.position(0);
+            mUploadedVertices += count;
+        }
+
+        uploadIndices();
+        if (!isUploaded()) return false;
+
+        mVertexData = null;
+        mIndices = null;
+        return true;
+    }
+
+    /**
+     * Uploads the indices following the uploaded ones up to the first that refers to a vertex
+     * that is not uploaded yet.
+     */
+    private void uploadIndices() {
+        int first = mUploadedIndices;
+        int end = first;
+        while (mUploadChunk < getChunkCount()) {
+            int chunkVertex = mChunkFirstVertex[mUploadChunk];
+            int chunkEnd = mChunkFirstIndex[mUploadChunk + 1];
+            int available = mUploadedVertices - chunkVertex;
+            while (end < chunkEnd && (mIndices.get(end) & 0xffff) < available) {
+                end++;
+            }
+            if (end < chunkEnd) break;
+            mUploadChunk++;
+        }
+
+        if (end > first) {
+            mIndices.position(first);
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[1]);
+            GLES20.glBufferSubData(GLES20.GL_ELEMENT_ARRAY_BUFFER, first * 2, (end - first) * 2,
+                    mIndices);
+            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+            mIndices.position(0);
+            mUploadedIndices = end;
+        }
+    }
+
+    /**
+     * Draws the start of a level of the mesh from the GL buffers, one draw call per chunk.
+     *
+     * @param attributeLocations Locations of the attributes of the format, which must be enabled.
+     * @param level Level of detail to draw, 0 for the most detailed.
+     * @param indexCount Number of leading indices of the level to draw, at most the uploaded
+     *                   index count of the level.
+     */
+    public void draw(int[] attributeLocations, int level, int indexCount) {
+        int endChunk = getLevelEndChunk(level);
+        int endIndex = mChunkFirstIndex[getLevelFirstChunk(level)] + indexCount;
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, mBuffers[0]);
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, mBuffers[1]);
+        for (int chunk = getLevelFirstChunk(level); chunk < endChunk; chunk++) {
+            int firstIndex = mChunkFirstIndex[chunk];
+            if (firstIndex >= endIndex) break;
+            int count = Math.min(endIndex, mChunkFirstIndex[chunk + 1]) - firstIndex;
+            count -= count % mFormat.primitiveMultiple;
+            if (count < 3) continue;
+
+            mFormat.setPointers(attributeLocations, mChunkFirstVertex[chunk]);
+            GLES20.glDrawElements(mFormat.primitive, count, GLES20.GL_UNSIGNED_SHORT,
+                    firstIndex * 2);
+        }
+
+        // The floor is drawn from client side arrays.
+        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    }
+
+    /**
+     * Forgets the GL buffers after the context they were created in was lost, so the next
+     * {@link #uploadChunk(int)} starts over. Meshes whose client side copies were already released
+     * are marked as lost instead.
+     */
+    public void discardGlBuffers() {
+        if (mVertexData == null) mLost = true;
+        for (int i = 0; i < mBuffers.length; i++) {
+            mBuffers[i] = 0;
+        }
+        mUploadedVertices = 0;
+        mUploadedIndices = 0;
+        mUploadChunk = 0;
+    }
+
+    /**
+     * Deletes the GL buffers of a mesh that is neither shown nor cached any more. Must be called
+     * on the GL thread. Like after {@link #discardGlBuffers()}, the mesh is lost if its client
+     * side copies were already released.
+     */
+    public void deleteGlBuffers() {
+        if (mBuffers[0] != 0) {
+            GLES20.glDeleteBuffers(mBuffers.length, mBuffers, 0);
+        }
+        discardGlBuffers();
+    }
+
+    private static void allocateBuffer(int target, int buffer, int size) {
+        GLES20.glBindBuffer(target, buffer);
+        GLES20.glBufferData(target, size, null, GLES20.GL_STATIC_DRAW);
+    }
+
+    /**
+     * Rounds a coordinate in quantization steps to the nearest quantized value.
+     */
+    static short quantize(float value) {
+        int quantized = Math.round(value);
+        if (quantized > QUANTIZED_MAX) return QUANTIZED_MAX;
+        if (quantized < -QUANTIZED_MAX) return -QUANTIZED_MAX;
+        return (short) quantized;
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the strokes, their index and the vertex
+     * data, in client memory or in GL buffers.
+     */
+    public int getSizeInBytes() {
+        return mSizeInBytes;
+    }
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.util.Log;
+
+import com.google.vrtoolkit.cardboard.Viewport;
+
+import java.util.ArrayList;
+
+/**
+ * The pages shown around the viewer, from loading to drawing. Pages are prepared by a
+ * {@link PageLoader}, uploaded within a time budget every frame and then drawn one by one, or all
+ * together as a {@link PageBatch} when a batch program is set. Every eye draws only the pages in
+ * its view, each at the level of detail it needs.
+ *
+ * Apart from {@link #load}, every method must be called on the GL thread. A frame neither
+ * allocates nor blocks on loading once the pages are uploaded.
+ */
+public class PageScene {
+
+    private static final String TAG = PageScene.class.getSimpleName();
+
+    // Log how many pages were drawn and culled whenever that changes, for debugging.
+    private static final boolean LOG_CULLING = false;
+
+    private static final Page[] NO_PAGES = new Page[0];
+
+    private final int mPageCount;
+    private final PageCache mPageCache;
+    private final PageLoader mPageLoader;
+    private final MeshUploader mMeshUploader;
+
+    private Page[] mPages;
+    private ShaderProgram mPageProgram;
+    private ShaderProgram mBatchProgram;
+    private boolean mUintIndices;
+    // Batch drawn while batching, and the newer one being uploaded to replace it.
+    private PageBatch mPageBatch;
+    private PageBatch mPendingBatch;
+    // Meshes that left the page cache, kept until no slot shows them and then deleted.
+    private final ArrayList<PageMesh> mRemovedMeshes = new ArrayList<PageMesh>();
+    private final int[] mPageLevels;
+
+    // Pages drawn and pages skipped by frustum culling in the current frame, over both eyes.
+    private int mPagesDrawn;
+    private int mPagesCulled;
+    private int mLoggedPagesDrawn = -1;
+    private int mLoggedPagesCulled = -1;
+
+    /**
+     * @param pageCount Number of slots for pages.
+     * @param cacheBytes Budget of the {@link PageCache}.
+     * @param uploadBudgetNanos Time per frame that may be spent uploading pages.
+     */
+    public PageScene(int pageCount, int cacheBytes, long uploadBudgetNanos) {
+        mPageCount = pageCount;
+        mPageCache = new PageCache(cacheBytes);
+        mPageLoader = new PageLoader(pageCount, mPageCache);
+        mMeshUploader = new MeshUploader(uploadBudgetNanos);
+        mPages = new Page[pageCount];
+        mPageLevels = new int[pageCount];
+    }
+
+    /**
+     * Starts loading a page into a slot, see {@link PageLoader#load}. May be called on any thread.
+     */
+    public void load(int slot, PageCache.Key key, PageLoader.Source source) {
+        mPageLoader.load(slot, key, source);
+    }
+
+    /**
+     * Empties the slots for a new GL context. Buffers of cached meshes belonged to the previous
+     * context. Meshes still holding their vertices are uploaded again, the others are rebuilt from
+     * their strokes by the loader.
+     *
+     * @param pageProgram Program for the vertex format of the page meshes, light_vertex for
+     *                    strips and stroke_vertex for segments.
+     * @param batchProgram Program linked from batch_vertex and batch_fragment to draw all pages
+     *                     as a batch, or null to draw them one by one.
+     * @param uintIndices Whether 32 bit indices can be drawn, see
+     *                    {@link PageBatch#supportsUintIndices()}.
+     */
+    public void onSurfaceCreated(ShaderProgram pageProgram, ShaderProgram batchProgram,
+                                 boolean uintIndices) {
+        mPageProgram = pageProgram;
+        mBatchProgram = batchProgram;
+        mUintIndices = uintIndices;
+        mMeshUploader.clear();
+        mPageBatch = null;
+        mPendingBatch = null;
+        for (PageMesh mesh : mPageCache.snapshot().values()) {
+            mesh.discardGlBuffers();
+        }
+        PageMesh removed;
+        while ((removed = mPageCache.pollRemoved()) != null) {
+            mRemovedMeshes.add(removed);
+        }
+        for (int i = 0; i < mRemovedMeshes.size(); i++) {
+            mRemovedMeshes.get(i).discardGlBuffers();
+        }
+        mRemovedMeshes.clear();
+        mPages = new Page[mPageCount];
+    }
+
+    /**
+     * Installs the pages that finished loading and uploads within the budget, before the eyes of
+     * a frame are drawn.
+     */
+    public void newFrame() {
+        mPagesDrawn = 0;
+        mPagesCulled = 0;
+
+        // Hand pages that finished loading in the background to the GL thread. They are batched
+        // into shared buffers in the background too, or else uploaded one by one. Either way
+        // they are uploaded progressively within the frame budget.
+        if (mPageLoader.installReadyPages(mPages, mPageProgram)) {
+            if (mBatchProgram != null) {
+                mPageLoader.loadBatch(mPages, mBatchProgram, mUintIndices);
+            } else {
+                for (Page page : mPages) {
+                    if (page != null) mMeshUploader.add(page.getMesh());
+                }
+            }
+        }
+        PageBatch batch = mPageLoader.takeReadyBatch();
+        if (batch != null && batch.getProgram() == mBatchProgram) {
+            if (mPendingBatch != null) {
+                mMeshUploader.remove(mPendingBatch);
+                mPendingBatch.release();
+            }
+            mPendingBatch = batch;
+            mMeshUploader.add(batch);
+        }
+        mMeshUploader.upload();
+        if (mPendingBatch != null && mPendingBatch.isUploaded()) {
+            swapPendingBatch();
+        }
+        deleteRemovedMeshes();
+    }
+
+    /**
+     * Draws the uploaded pending batch from now on instead of the previous one. The meshes of its
+     * pages keep their client side copies, the next batch is built from them.
+     */
+    private void swapPendingBatch() {
+        if (mPageBatch != null) mPageBatch.release();
+        mPageBatch = mPendingBatch;
+        mPendingBatch = null;
+    }
+
+    /**
+     * Deletes the GL buffers of meshes that were evicted from the page cache, once they are not
+     * shown in any slot either. Meshes replaced in a slot while still cached keep their buffers,
+     * so showing them again is free, until the cache evicts them.
+     */
+    private void deleteRemovedMeshes() {
+        PageMesh removed;
+        while ((removed = mPageCache.pollRemoved()) != null) {
+            mRemovedMeshes.add(removed);
+        }
+        for (int i = mRemovedMeshes.size() - 1; i >= 0; i--) {
+            PageMesh mesh = mRemovedMeshes.get(i);
+            if (isShown(mesh)) continue;
+            mMeshUploader.remove(mesh);
+            mesh.deleteGlBuffers();
+            mRemovedMeshes.remove(i);
+        }
+    }
+
+    private boolean isShown(PageMesh mesh) {
+        for (Page page : mPages) {
+            if (page != null && page.getMesh() == mesh) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the pages that are drawn by slot. While batching these are the pages of the batch,
+     * none before the first batch is uploaded. Must not be modified.
+     */
+    public Page[] getShownPages() {
+        if (mBatchProgram == null) return mPages;
+        return mPageBatch != null ? mPageBatch.getPages() : NO_PAGES;
+    }
+
+    /**
+     * Returns true once every installed page is uploaded and drawn.
+     */
+    public boolean isUploaded() {
+        if (mBatchProgram != null) return mPendingBatch == null;
+        for (Page page : mPages) {
+            if (page != null && !page.getMesh().isUploaded()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Draws the pages in view of an eye, they may use a different program, each at the level of
+     * detail that is just detailed enough for how large it appears to the eye. While batching,
+     * the pages of the batch are drawn until a newer batch is uploaded.
+     *
+     * @param perspective Projection of the eye.
+     * @param view View matrix of the eye.
+     * @param lightPosInEyeSpace
+     * @param viewport Viewport of the eye.
+     * @param eye Which eye, see {@link com.google.vrtoolkit.cardboard.EyeParams.Eye}.
+     */
+    public void drawEye(float[] perspective, float[] view, float[] lightPosInEyeSpace,
+                        Viewport viewport, int eye) {
+        Page[] pages = getShownPages();
+        for (int slot = 0; slot < mPageCount; slot++) {
+            Page page = slot < pages.length ? pages[slot] : null;
+            mPageLevels[slot] = -1;
+            if (page == null) continue;
+            if (!page.isInFrustum(perspective, view)) {
+                mPagesCulled++;
+                continue;
+            }
+            mPagesDrawn++;
+            mPageLevels[slot] = page.chooseLevel(perspective, view, viewport, eye);
+        }
+        if (mBatchProgram != null) {
+            if (mPageBatch != null) {
+                mPageBatch.draw(perspective, view, lightPosInEyeSpace, mPageLevels);
+            }
+        } else {
+            for (int slot = 0; slot < mPageCount; slot++) {
+                if (mPageLevels[slot] < 0) continue;
+                mPages[slot].draw(perspective, view, lightPosInEyeSpace, mPageLevels[slot]);
+            }
+        }
+    }
+
+    /**
+     * Called once both eyes of a frame are drawn.
+     */
+    public void finishFrame() {
+        if (LOG_CULLING && (mPagesDrawn != mLoggedPagesDrawn
+                || mPagesCulled != mLoggedPagesCulled)) {
+            mLoggedPagesDrawn = mPagesDrawn;
+            mLoggedPagesCulled = mPagesCulled;
+            Log.d(TAG, "Pages drawn: " + mPagesDrawn + ", culled: " + mPagesCulled);
+        }
+    }
+
+    /**
+     * Stops loading pages, see {@link PageLoader#shutdown()}.
+     */
+    public void shutdown() {
+        mPageLoader.shutdown();
+    }
+}
@@ -0,0 +1,477 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Minimal random access reader for the PDF files written by a Boogie Board Sync. The trailer and
+ * cross-reference table are used to seek directly to the page tree and to the content streams of
+ * each page, so only the objects that are needed are ever read.
+ */
+public class PdfDocument {
+
+    private static final int TRAILER_SEARCH_LENGTH = 1024;
+
+    // US Letter, used when a page does not define or inherit a media box.
+    private static final float[] DEFAULT_MEDIA_BOX = {0, 0, 612, 792};
+
+    private final ByteBuffer mData;
+    private int[] mObjectOffsets;
+    private final List<int[]> mPageContents;
+    private final List<float[]> mPageMediaBoxes;
+
+    /**
+     * Reference to an indirect object, "number generation R".
+     */
+    static final class Reference {
+        final int number;
+
+        Reference(int number) {
+            this.number = number;
+        }
+    }
+
+    /**
+     * Location of a page content stream within the file.
+     */
+    static final class Stream {
+        final int offset;
+        final int length;
+        final boolean flateEncoded;
+
+        Stream(int offset, int length, boolean flateEncoded) {
+            this.offset = offset;
+            this.length = length;
+            this.flateEncoded = flateEncoded;
+        }
+    }
+
+    private PdfDocument(ByteBuffer data) throws IOException {
+        mData = data;
+        mObjectOffsets = new int[0];
+        mPageContents = new ArrayList<int[]>();
+        mPageMediaBoxes = new ArrayList<float[]>();
+
+        Map<String, Object> trailer = readCrossReferences(findStartXref());
+        Object root = resolve(trailer.get("Root"));
+        if (!(root instanceof Map)) {
+            throw new IOException("Document catalog is missing");
+        }
+        collectPages(resolve(((Map<?, ?>) root).get("Pages")), 0, DEFAULT_MEDIA_BOX);
+    }
+
+    /**
+     * Maps the file into memory and reads its cross-reference table.
+     */
+    public static PdfDocument open(File file) throws IOException {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = randomAccessFile.getChannel();
+            return new PdfDocument(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    /**
+     * Reads a document from a stream that does not support random access, such as a raw resource.
+     */
+    public static PdfDocument read(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int len;
+        while ((len = inputStream.read(buffer)) > -1) {
+            baos.write(buffer, 0, len);
+        }
+        return new PdfDocument(ByteBuffer.wrap(baos.toByteArray()));
+    }
+
+    public int getPageCount() {
+        return mPageContents.size();
+    }
+
+    /**
+     * Returns the media box of the page as {llx, lly, urx, ury} in default user space.
+     */
+    public float[] getMediaBox(int pageIndex) {
+        return mPageMediaBoxes.get(pageIndex).clone();
+    }
+
+    /**
+     * Returns the content streams of the page in drawing order.
+     */
+    Stream[] getContentStreams(int pageIndex) throws IOException {
+        int[] objects = mPageContents.get(pageIndex);
+        Stream[] streams = new Stream[objects.length];
+        for (int i = 0; i < objects.length; i++) {
+            streams[i] = readStream(objects[i]);
+        }
+        return streams;
+    }
+
+    /**
+     * Copies part of the file into the given array.
+     */
+    void read(int offset, byte[] buffer, int bufferOffset, int length) {
+        ByteBuffer source = mData.duplicate();
+        source.position(offset);
+        source.get(buffer, bufferOffset, length);
+    }
+
+    private int findStartXref() throws IOException {
+        int limit = mData.limit();
+        int start = Math.max(0, limit - TRAILER_SEARCH_LENGTH);
+        for (int i = limit - 9; i >= start; i--) {
+            if (matches(i, "startxref")) {
+                Parser parser = new Parser(i + 9);
+                Object offset = parser.next();
+                if (offset instanceof Number) {
+                    return ((Number) offset).intValue();
+                }
+                break;
+            }
+        }
+        throw new IOException("startxref not found");
+    }
+
+    private Map<String, Object> readCrossReferences(int offset) throws IOException {
+        Map<String, Object> newestTrailer = null;
+        // Offsets of the sections read so far, so a /Prev chain that loops is not followed forever.
+        Set<Integer> sections = new HashSet<Integer>();
+        while (true) {
+            if (!sections.add(offset)) {
+                throw new IOException("Cross-reference sections loop at " + offset);
+            }
+            if (!matches(offset, "xref")) {
+                throw new IOException("Unsupported cross-reference section at " + offset);
+            }
+            Parser parser = new Parser(offset + 4);
+            while (true) {
+                Object token = parser.next();
+                if ("trailer".equals(token)) break;
+                if (!(token instanceof Number)) {
+                    throw new IOException("Malformed cross-reference table");
+                }
+                Object countToken = parser.next();
+                if (!(countToken instanceof Number)) {
+                    throw new IOException("Malformed cross-reference table");
+                }
+                int first = ((Number) token).intValue();
+                int count = ((Number) countToken).intValue();
+                // Every object takes some bytes of the file, so there are fewer than its length.
+                if (first < 0 || count < 0 || (long) first + count > mData.limit()) {
+                    throw new IOException("Malformed cross-reference subsection " + first + " "
+                            + count);
+                }
+                ensureObjectCapacity(first + count);
+                for (int i = 0; i < count; i++) {
+                    Object entry = parser.next();
+                    if (!(entry instanceof Number)) {
+                        throw new IOException("Malformed cross-reference entry " + (first + i));
+                    }
+                    int entryOffset = ((Number) entry).intValue();
+                    parser.next(); // Generation.
+                    Object type = parser.next();
+                    // Entries from newer sections take precedence over the ones they update.
+                    if ("n".equals(type) && mObjectOffsets[first + i] == 0) {
+                        mObjectOffsets[first + i] = entryOffset;
+                    }
+                }
+            }
+
+            Object trailer = parser.next();
+            if (!(trailer instanceof Map)) {
+                throw new IOException("Malformed trailer");
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> trailerMap = (Map<String, Object>) trailer;
+            if (newestTrailer == null) newestTrailer = trailerMap;
+
+            Object previous = trailerMap.get("Prev");
+            if (!(previous instanceof Number)) break;
+            offset = ((Number) previous).intValue();
+        }
+        return newestTrailer;
+    }
+
+    private void ensureObjectCapacity(int size) {
+        if (size > mObjectOffsets.length) {
+            int[] offsets = new int[size];
+            System.arraycopy(mObjectOffsets, 0, offsets, 0, mObjectOffsets.length);
+            mObjectOffsets = offsets;
+        }
+    }
+
+    private void collectPages(Object node, int depth, float[] mediaBox) throws IOException {
+        if (!(node instanceof Map) || depth > 32) return;
+        Map<?, ?> dictionary = (Map<?, ?>) node;
+
+        // The media box is inherited from the page tree when a page does not define its own.
+        Object box = resolve(dictionary.get("MediaBox"));
+        if (box instanceof List && ((List<?>) box).size() == 4) {
+            List<?> list = (List<?>) box;
+            mediaBox = new float[4];
+            for (int i = 0; i < 4; i++) {
+                Object value = resolve(list.get(i));
+                mediaBox[i] = value instanceof Number ? ((Number) value).floatValue() : 0;
+            }
+        }
+
+        Object kids = resolve(dictionary.get("Kids"));
+        if (kids instanceof List) {
+            for (Object kid : (List<?>) kids) {
+                collectPages(resolve(kid), depth + 1, mediaBox);
+            }
+        } else if ("Page".equals(dictionary.get("Type"))) {
+            Object contents = dictionary.get("Contents");
+            int[] objects;
+            if (contents instanceof Reference && !(resolve(contents) instanceof List)) {
+                objects = new int[] {((Reference) contents).number};
+            } else {
+                Object array = resolve(contents);
+                List<?> list = array instanceof List ? (List<?>) array : new ArrayList<Object>();
+                objects = new int[list.size()];
+                for (int i = 0; i < objects.length; i++) {
+                    if (!(list.get(i) instanceof Reference)) {
+                        throw new IOException("Malformed page contents");
+                    }
+                    objects[i] = ((Reference) list.get(i)).number;
+                }
+            }
+            mPageContents.add(objects);
+            mPageMediaBoxes.add(mediaBox);
+        }
+    }
+
+    private Object resolve(Object object) throws IOException {
+        if (!(object instanceof Reference)) return object;
+        Parser parser = parserForObject(((Reference) object).number);
+        return parser.next();
+    }
+
+    private Stream readStream(int number) throws IOException {
+        Parser parser = parserForObject(number);
+        Object dictionary = parser.next();
+        if (!(dictionary instanceof Map) || !"stream".equals(parser.next())) {
+            throw new IOException("Object " + number + " is not a stream");
+        }
+
+        // The stream data starts after the end of line that follows the keyword.
+        int start = parser.position();
+        if (start < mData.limit() && mData.get(start) == '\r') start++;
+        if (start < mData.limit() && mData.get(start) == '\n') start++;
+
+        Map<?, ?> streamDictionary = (Map<?, ?>) dictionary;
+        Object length = resolve(streamDictionary.get("Length"));
+        if (!(length instanceof Number)) {
+            throw new IOException("Stream " + number + " has no length");
+        }
+        Object filter = resolve(streamDictionary.get("Filter"));
+        if (filter instanceof List && ((List<?>) filter).size() == 1) {
+            filter = ((List<?>) filter).get(0);
+        }
+        if (filter != null && !"FlateDecode".equals(filter)) {
+            throw new IOException("Unsupported stream filter " + filter);
+        }
+        return new Stream(start, ((Number) length).intValue(), filter != null);
+    }
+
+    private Parser parserForObject(int number) throws IOException {
+        if (number <= 0 || number >= mObjectOffsets.length || mObjectOffsets[number] == 0) {
+            throw new IOException("Object " + number + " is not in the cross-reference table");
+        }
+        Parser parser = new Parser(mObjectOffsets[number]);
+        parser.next(); // Object number.
+        parser.next(); // Generation.
+        if (!"obj".equals(parser.next())) {
+            throw new IOException("Object " + number + " not found at its cross-reference offset");
+        }
+        return parser;
+    }
+
+    private boolean matches(int offset, String keyword) {
+        if (offset < 0 || offset + keyword.length() > mData.limit()) return false;
+        for (int i = 0; i < keyword.length(); i++) {
+            if (mData.get(offset + i) != keyword.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Parses PDF objects starting at an absolute offset. Numbers are returned as {@link Number},
+     * names as Strings without the slash, keywords as Strings, references as {@link Reference},
+     * arrays as Lists and dictionaries as Maps.
+     */
+    private final class Parser {
+
+        private static final int NO_TOKEN = -1;
+
+        private int mPosition;
+
+        Parser(int position) {
+            mPosition = position;
+        }
+
+        int position() {
+            return mPosition;
+        }
+
+        Object next() throws IOException {
+            Object object = nextToken();
+            if (object instanceof Integer) {
+                // Look ahead for "number generation R".
+                int mark = mPosition;
+                if (skipWhitespace() != NO_TOKEN && nextToken() instanceof Integer
+                        && skipWhitespace() != NO_TOKEN && "R".equals(nextToken())) {
+                    return new Reference((Integer) object);
+                }
+                mPosition = mark;
+            }
+            return object;
+        }
+
+        private Object nextToken() throws IOException {
+            int c = skipWhitespace();
+            if (c == NO_TOKEN) {
+                throw new IOException("Unexpected end of file");
+            }
+
+            if (c == '/') {
+                mPosition++;
+                return readRegular();
+            } else if (c == '<' && peek(1) == '<') {
+                mPosition += 2;
+                Map<String, Object> dictionary = new HashMap<String, Object>();
+                while (skipWhitespace() != '>') {
+                    Object key = nextToken();
+                    dictionary.put(String.valueOf(key), next());
+                }
+                mPosition += 2;
+                return dictionary;
+            } else if (c == '[') {
+                mPosition++;
+                List<Object> array = new ArrayList<Object>();
+                while (skipWhitespace() != ']') {
+                    array.add(next());
+                }
+                mPosition++;
+                return array;
+            } else if (c == '(') {
+                skipLiteralString();
+                return "";
+            } else if (c == '<') {
+                while (mPosition < mData.limit() && mData.get(mPosition) != '>') mPosition++;
+                mPosition++;
+                return "";
+            } else if (c == '>' || c == ']' || c == ')' || c == '{' || c == '}') {
+                mPosition++;
+                return String.valueOf((char) c);
+            }
+
+            String token = readRegular();
+            char first = token.length() > 0 ? token.charAt(0) : ' ';
+            if ((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.') {
+                try {
+                    if (token.indexOf('.') >= 0) return Float.valueOf(token);
+                    return Integer.valueOf(token);
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed number " + token);
+                }
+            }
+            return token;
+        }
+
+        private int skipWhitespace() {
+            int limit = mData.limit();
+            while (mPosition < limit) {
+                int c = mData.get(mPosition) & 0xFF;
+                if (c == '%') {
+                    while (mPosition < limit && mData.get(mPosition) != '\n'
+                            && mData.get(mPosition) != '\r') {
+                        mPosition++;
+                    }
+                } else if (isWhitespace(c)) {
+                    mPosition++;
+                } else {
+                    return c;
+                }
+            }
+            return NO_TOKEN;
+        }
+
+        private int peek(int ahead) {
+            int position = mPosition + ahead;
+            return position < mData.limit() ? mData.get(position) & 0xFF : NO_TOKEN;
+        }
+
+        private String readRegular() {
+            StringBuilder sb = new StringBuilder();
+            int limit = mData.limit();
+            while (mPosition < limit) {
+                int c = mData.get(mPosition) & 0xFF;
+                if (isWhitespace(c) || isDelimiter(c)) break;
+                sb.append((char) c);
+                mPosition++;
+            }
+            return sb.toString();
+        }
+
+        private void skipLiteralString() {
+            int depth = 0;
+            int limit = mData.limit();
+            while (mPosition < limit) {
+                int c = mData.get(mPosition++) & 0xFF;
+                if (c == '\\') {
+                    mPosition++;
+                } else if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f' || c == 0;
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == '(' || c == ')' || c == '<' || c == '>' || c == '[' || c == ']'
+                || c == '{' || c == '}' || c == '/' || c == '%';
+    }
+}
@@ -0,0 +1,165 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+/**
+ * Simplifies the polylines of a page with the Douglas-Peucker algorithm. Connected segments, where
+ * one ends where the next starts, are treated as one polyline and reduced to the fewest points
+ * that keep every removed point within a tolerance of the simplified line. Segments that are
+ * merged keep the largest of their widths.
+ */
+final class PolylineSimplifier {
+
+    private PolylineSimplifier() {
+    }
+
+    /**
+     * Returns the segments of every level of detail of a page mesh, see
+     * {@link #simplifyLevel(StrokeData, int)}.
+     */
+    static StrokeData[] simplifyLevels(StrokeData strokes) {
+        StrokeData[] levels = new StrokeData[PageMesh.LEVEL_COUNT];
+        for (int level = 0; level < levels.length; level++) {
+            levels[level] = simplifyLevel(strokes, level);
+        }
+        return levels;
+    }
+
+    /**
+     * Returns the segments of a level of detail of a page mesh, level 0 being the segments
+     * themselves and each following level simplified with the tolerance of
+     * {@link Page#getLevelTolerance(int)}.
+     */
+    static StrokeData simplifyLevel(StrokeData strokes, int level) {
+        return level == 0 ? strokes : simplify(strokes, Page.getLevelTolerance(level));
+    }
+
+    /**
+     * Returns simplified copies of the segments.
+     *
+     * @param strokes Segments in digitizer coordinates.
+     * @param tolerance Largest distance of a removed point from the simplified polyline, in page
+     *                  units where the page spans 2 units in both directions.
+     */
+    static StrokeData simplify(StrokeData strokes, float tolerance) {
+        // Distances are measured in page units.
+        float scaleX = 2 / StrokeData.PAGE_WIDTH;
+        float scaleY = 2 / StrokeData.PAGE_HEIGHT;
+        float toleranceSquared = tolerance * tolerance;
+
+        StrokeData simplified = new StrokeData(Math.max(strokes.count / 2, 16));
+        boolean[] keep = new boolean[0];
+        int[] stack = new int[0];
+
+        int first = 0;
+        while (first < strokes.count) {
+            // Find the segments connected to the first one, the polyline has one more point.
+            int last = first;
+            while (last + 1 < strokes.count
+                    && strokes.x1[last + 1] == strokes.x2[last]
+                    && strokes.y1[last + 1] == strokes.y2[last]) {
+                last++;
+            }
+            int pointCount = last - first + 2;
+            if (keep.length < pointCount) {
+                keep = new boolean[Math.max(pointCount, keep.length * 2)];
+                stack = new int[keep.length * 2];
+            }
+            for (int i = 0; i < pointCount; i++) {
+                keep[i] = false;
+            }
+            keep[0] = true;
+            keep[pointCount - 1] = true;
+
+            // Split ranges at their farthest point until every point is close enough.
+            int top = 0;
+            stack[top++] = 0;
+            stack[top++] = pointCount - 1;
+            while (top > 0) {
+                int end = stack[--top];
+                int start = stack[--top];
+                if (end - start < 2) continue;
+
+                float ax = pointX(strokes, first, start) * scaleX;
+                float ay = pointY(strokes, first, start) * scaleY;
+                float bx = pointX(strokes, first, end) * scaleX;
+                float by = pointY(strokes, first, end) * scaleY;
+                float farthestDistance = -1;
+                int farthest = -1;
+                for (int i = start + 1; i < end; i++) {
+                    float distance = distanceSquared(pointX(strokes, first, i) * scaleX,
+                            pointY(strokes, first, i) * scaleY, ax, ay, bx, by);
+                    if (distance > farthestDistance) {
+                        farthestDistance = distance;
+                        farthest = i;
+                    }
+                }
+                if (farthestDistance > toleranceSquared) {
+                    keep[farthest] = true;
+                    stack[top++] = start;
+                    stack[top++] = farthest;
+                    stack[top++] = farthest;
+                    stack[top++] = end;
+                }
+            }
+
+            // Emit a segment between each pair of kept points.
+            int start = 0;
+            float width = 0;
+            for (int i = 1; i < pointCount; i++) {
+                width = Math.max(width, strokes.width[first + i - 1]);
+                if (!keep[i]) continue;
+                simplified.add(pointX(strokes, first, start), pointY(strokes, first, start),
+                        pointX(strokes, first, i), pointY(strokes, first, i), width);
+                start = i;
+                width = 0;
+            }
+
+            first = last + 1;
+        }
+        return simplified;
+    }
+
+    private static float pointX(StrokeData strokes, int first, int point) {
+        return point == 0 ? strokes.x1[first] : strokes.x2[first + point - 1];
+    }
+
+    private static float pointY(StrokeData strokes, int first, int point) {
+        return point == 0 ? strokes.y1[first] : strokes.y2[first + point - 1];
+    }
+
+    /**
+     * Returns the squared distance of a point from the segment from a to b.
+     */
+    private static float distanceSquared(float x, float y, float ax, float ay, float bx, float by) {
+        float dx = bx - ax;
+        float dy = by - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSquared;
+        t = t < 0 ? 0 : (t > 1 ? 1 : t);
+        float ex = ax + t * dx - x;
+        float ey = ay + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+}
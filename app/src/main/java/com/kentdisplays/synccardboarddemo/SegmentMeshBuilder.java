@@ -0,0 +1,175 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Builds a {@link PageMesh} in the {@link VertexFormat#SEGMENTS} format, where the vertex shader
+ * turns every segment into a quad. Each segment is written as 4 corners holding its quantized end
+ * points, its width and the number of the corner, plus 6 indices. Nothing is tessellated on the
+ * CPU, and because the width reaches the shader unchanged it can be scaled at draw time.
+ *
+ * The levels of detail follow each other from the coarsest to level 0, each starting a new chunk.
+ */
+final class SegmentMeshBuilder {
+
+    private static final VertexFormat FORMAT = VertexFormat.SEGMENTS;
+    private static final int SHORTS_PER_VERTEX = FORMAT.stride / 2;
+    private static final int VERTICES_PER_SEGMENT = 4;
+    private static final int INDICES_PER_SEGMENT = 6;
+    private static final int SEGMENTS_PER_CHUNK =
+            PageMesh.MAX_CHUNK_VERTICES / VERTICES_PER_SEGMENT;
+
+    // Two triangles per quad, see stroke_vertex.shader for where the corners are placed.
+    private static final short[] QUAD_INDICES = {0, 1, 2, 1, 3, 2};
+
+    private static final int STAGING_SEGMENTS = 256;
+
+    private SegmentMeshBuilder() {
+    }
+
+    /**
+     * Builds the mesh of a page.
+     *
+     * @param strokes Segments of the page in digitizer coordinates.
+     */
+    static PageMesh build(StrokeData strokes) {
+        StrokeData[] levels = PolylineSimplifier.simplifyLevels(strokes);
+        int count = strokes.count;
+
+        // Quantize the end points over their bounds, in page coordinates. Simplified levels only
+        // keep some of the points, so they are within the same bounds.
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            minX = Math.min(minX, Math.min(strokes.x1[i], strokes.x2[i]));
+            minY = Math.min(minY, Math.min(strokes.y1[i], strokes.y2[i]));
+            maxX = Math.max(maxX, Math.max(strokes.x1[i], strokes.x2[i]));
+            maxY = Math.max(maxY, Math.max(strokes.y1[i], strokes.y2[i]));
+        }
+        float[] origin = new float[2];
+        float[] scale = {1.0f, 1.0f};
+        if (count > 0) {
+            origin[0] = ((minX + maxX) / 2) / StrokeData.PAGE_WIDTH * 2 - 1;
+            origin[1] = ((minY + maxY) / 2) / StrokeData.PAGE_HEIGHT * 2 - 1;
+            scale[0] = Math.max((maxX - minX) / StrokeData.PAGE_WIDTH, Float.MIN_NORMAL)
+                    / PageMesh.QUANTIZED_MAX;
+            scale[1] = Math.max((maxY - minY) / StrokeData.PAGE_HEIGHT, Float.MIN_NORMAL)
+                    / PageMesh.QUANTIZED_MAX;
+        }
+        // Digitizer units per quantization step.
+        float stepX = scale[0] * StrokeData.PAGE_WIDTH / 2;
+        float stepY = scale[1] * StrokeData.PAGE_HEIGHT / 2;
+        float centerX = (origin[0] + 1) * StrokeData.PAGE_WIDTH / 2;
+        float centerY = (origin[1] + 1) * StrokeData.PAGE_HEIGHT / 2;
+
+        // Levels are stored coarsest first, and chunks never hold segments of two levels.
+        int totalCount = 0;
+        int chunkCount = 0;
+        int[] levelFirstChunk = new int[levels.length + 1];
+        for (int i = 0; i < levels.length; i++) {
+            StrokeData level = levels[levels.length - 1 - i];
+            levelFirstChunk[i] = chunkCount;
+            totalCount += level.count;
+            chunkCount += (level.count + SEGMENTS_PER_CHUNK - 1) / SEGMENTS_PER_CHUNK;
+        }
+        levelFirstChunk[levels.length] = chunkCount;
+
+        int vertexCount = totalCount * VERTICES_PER_SEGMENT;
+        int indexCount = totalCount * INDICES_PER_SEGMENT;
+        int vertexBytes = vertexCount * FORMAT.stride;
+        ByteBuffer output = ByteBuffer.allocateDirect(vertexBytes + indexCount * 2);
+        output.order(ByteOrder.nativeOrder());
+        ByteBuffer vertexData = slice(output, 0, vertexBytes);
+        ShortBuffer vertices = vertexData.asShortBuffer();
+        ShortBuffer indices = slice(output, vertexBytes, indexCount * 2).asShortBuffer();
+
+        int[] chunkFirstVertex = new int[chunkCount + 1];
+        int[] chunkFirstIndex = new int[chunkCount + 1];
+        int levelFirstSegment = 0;
+        for (int i = 0; i < levels.length; i++) {
+            int levelCount = levels[levels.length - 1 - i].count;
+            for (int chunk = levelFirstChunk[i]; chunk < levelFirstChunk[i + 1]; chunk++) {
+                int firstSegment = levelFirstSegment
+                        + (chunk - levelFirstChunk[i]) * SEGMENTS_PER_CHUNK;
+                chunkFirstVertex[chunk] = firstSegment * VERTICES_PER_SEGMENT;
+                chunkFirstIndex[chunk] = firstSegment * INDICES_PER_SEGMENT;
+            }
+            levelFirstSegment += levelCount;
+        }
+        chunkFirstVertex[chunkCount] = vertexCount;
+        chunkFirstIndex[chunkCount] = indexCount;
+
+        // Chunks hold a whole number of staged runs, so a run never crosses a chunk.
+        short[] vertexStaging = new short[STAGING_SEGMENTS * VERTICES_PER_SEGMENT
+                * SHORTS_PER_VERTEX];
+        short[] indexStaging = new short[STAGING_SEGMENTS * INDICES_PER_SEGMENT];
+        for (int l = levels.length - 1; l >= 0; l--) {
+            StrokeData level = levels[l];
+            for (int first = 0; first < level.count; first += STAGING_SEGMENTS) {
+                int last = Math.min(first + STAGING_SEGMENTS, level.count);
+                int o = 0;
+                int n = 0;
+                for (int i = first; i < last; i++) {
+                    short x1 = PageMesh.quantize((level.x1[i] - centerX) / stepX);
+                    short y1 = PageMesh.quantize((level.y1[i] - centerY) / stepY);
+                    short x2 = PageMesh.quantize((level.x2[i] - centerX) / stepX);
+                    short y2 = PageMesh.quantize((level.y2[i] - centerY) / stepY);
+                    short width = (short) Math.min(Math.round(level.width[i]), Short.MAX_VALUE);
+                    for (int corner = 0; corner < VERTICES_PER_SEGMENT; corner++) {
+                        vertexStaging[o++] = x1;
+                        vertexStaging[o++] = y1;
+                        vertexStaging[o++] = x2;
+                        vertexStaging[o++] = y2;
+                        vertexStaging[o++] = width;
+                        vertexStaging[o++] = (short) corner;
+                    }
+
+                    int vertex = (i % SEGMENTS_PER_CHUNK) * VERTICES_PER_SEGMENT;
+                    for (int k = 0; k < INDICES_PER_SEGMENT; k++) {
+                        indexStaging[n++] = (short) (vertex + QUAD_INDICES[k]);
+                    }
+                }
+                vertices.put(vertexStaging, 0, o);
+                indices.put(indexStaging, 0, n);
+            }
+        }
+
+        indices.position(0);
+        return new PageMesh(strokes, FORMAT, vertexData, origin, scale, indices,
+                chunkFirstVertex, chunkFirstIndex, levelFirstChunk);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.HashMap;
+
+/**
+ * Linked OpenGL ES program that looks up the locations of all its active attributes and uniforms
+ * once, right after linking. Drawing code asks for the locations it needs when it is set up and
+ * keeps them as ints, so nothing is looked up by name while drawing.
+ *
+ * The locations are plain values that never change, so they may be read on any thread once the
+ * program was created on the GL thread.
+ */
+public class ShaderProgram {
+
+    private static final String TAG = ShaderProgram.class.getSimpleName();
+
+    private final int mProgram;
+    private final HashMap<String, Integer> mAttributes = new HashMap<String, Integer>();
+    private final HashMap<String, Integer> mUniforms = new HashMap<String, Integer>();
+
+    /**
+     * Links a program from compiled shaders, see MainActivity.loadGLShader. Must be called on the
+     * GL thread.
+     */
+    public ShaderProgram(int vertexShader, int fragmentShader) {
+        mProgram = GLES20.glCreateProgram();
+        GLES20.glAttachShader(mProgram, vertexShader);
+        GLES20.glAttachShader(mProgram, fragmentShader);
+        GLES20.glLinkProgram(mProgram);
+
+        // Get the link status.
+        final int[] params = new int[1];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_LINK_STATUS, params, 0);
+        if (params[0] == 0) {
+            Log.e(TAG, "Error linking program: " + GLES20.glGetProgramInfoLog(mProgram));
+            GLES20.glDeleteProgram(mProgram);
+            throw new RuntimeException("Error linking program.");
+        }
+
+        final int[] length = new int[1];
+        final int[] size = new int[1];
+        final int[] type = new int[1];
+
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH, params, 0);
+        byte[] name = new byte[Math.max(params[0], 1)];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTES, params, 0);
+        for (int i = 0; i < params[0]; i++) {
+            GLES20.glGetActiveAttrib(mProgram, i, name.length, length, 0, size, 0, type, 0, name,
+                    0);
+            String attribute = new String(name, 0, length[0]);
+            mAttributes.put(attribute, GLES20.glGetAttribLocation(mProgram, attribute));
+        }
+
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH, params, 0);
+        name = new byte[Math.max(params[0], 1)];
+        GLES20.glGetProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORMS, params, 0);
+        for (int i = 0; i < params[0]; i++) {
+            GLES20.glGetActiveUniform(mProgram, i, name.length, length, 0, size, 0, type, 0, name,
+                    0);
+            String uniform = new String(name, 0, length[0]);
+            int location = GLES20.glGetUniformLocation(mProgram, uniform);
+            // Arrays are reported by their first element, they are looked up without it.
+            if (uniform.endsWith("[0]")) {
+                uniform = uniform.substring(0, uniform.length() - 3);
+            }
+            mUniforms.put(uniform, location);
+        }
+    }
+
+    /**
+     * Returns the name of the program object.
+     */
+    public int getHandle() {
+        return mProgram;
+    }
+
+    public void use() {
+        GLES20.glUseProgram(mProgram);
+    }
+
+    /**
+     * Returns the location of an active attribute, or -1 if the program does not use it.
+     */
+    public int getAttribute(String name) {
+        Integer location = mAttributes.get(name);
+        return location != null ? location : -1;
+    }
+
+    /**
+     * Returns the location of an active uniform, or -1 if the program does not use it. Arrays are
+     * named without an index and give the location of their first element.
+     */
+    public int getUniform(String name) {
+        Integer location = mUniforms.get(name);
+        return location != null ? location : -1;
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary sidecar files holding the decoded strokes of a downloaded page, so that showing the page
+ * again is a single memory mapped read instead of an inflate and parse of the PDF.
+ *
+ * The layout is a fixed header followed by the x1, y1, x2, y2 and width arrays, written in the
+ * native byte order of the device:
+ * <pre>
+ * int magic, int version, int byteOrder, int pageIndex, long sourceLength, long sourceModified,
+ * int count, float[count] x1, float[count] y1, float[count] x2, float[count] y2, float[count] width
+ * </pre>
+ * A sidecar is discarded when its version, byte order or the size or modification time of the
+ * source file no longer match.
+ */
+public final class StrokeCache {
+
+    private static final String TAG = StrokeCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "strokes";
+    private static final String EXTENSION = ".strokes";
+
+    private static final int MAGIC = 0x53594e43; // "SYNC"
+    private static final int VERSION = 3;
+    private static final int HEADER_SIZE = 4 * 4 + 8 * 2 + 4;
+    private static final int ARRAYS = 5;
+
+    private StrokeCache() {
+    }
+
+    /**
+     * Returns the sidecar file for a file stored with {@link Context#openFileOutput}. Sidecars
+     * live in their own private directory so they never show up in {@link Context#fileList()}.
+     */
+    public static File sidecarFor(Context context, String fileName) {
+        return new File(context.getDir(DIRECTORY, Context.MODE_PRIVATE), fileName + EXTENSION);
+    }
+
+    /**
+     * Returns the strokes of the newest page of a downloaded file, from its sidecar when it is
+     * still valid and otherwise by decoding the PDF and writing a new sidecar.
+     */
+    public static StrokeData getNewestPage(Context context, String fileName) throws IOException {
+        File source = context.getFileStreamPath(fileName);
+        File sidecar = sidecarFor(context, fileName);
+
+        StrokeData strokes = read(sidecar, source);
+        if (strokes != null) return strokes;
+
+        PdfDocument document = PdfDocument.open(source);
+        int pageIndex = document.getPageCount() - 1;
+        if (pageIndex < 0) {
+            throw new IOException(fileName + " does not contain any pages");
+        }
+        strokes = StrokeDecoder.decodePage(document, pageIndex);
+        write(sidecar, source, pageIndex, strokes);
+        return strokes;
+    }
+
+    /**
+     * Maps a sidecar and reads its strokes, or returns null when it is missing or stale.
+     */
+    public static StrokeData read(File sidecar, File source) {
+        if (!sidecar.exists()) return null;
+
+        try {
+            RandomAccessFile file = new RandomAccessFile(sidecar, "r");
+            try {
+                FileChannel channel = file.getChannel();
+                ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.nativeOrder());
+
+                if (channel.size() < HEADER_SIZE
+                        || buffer.getInt() != MAGIC
+                        || buffer.getInt() != VERSION
+                        || buffer.getInt() != byteOrderMarker()) {
+                    return discard(sidecar);
+                }
+                buffer.getInt(); // Page index.
+                if (buffer.getLong() != source.length()
+                        || buffer.getLong() != source.lastModified()) {
+                    return discard(sidecar);
+                }
+                int count = buffer.getInt();
+                if (count < 0 || channel.size() != HEADER_SIZE + (long) count * ARRAYS * 4) {
+                    return discard(sidecar);
+                }
+
+                StrokeData strokes = new StrokeData(count);
+                FloatBuffer floats = buffer.asFloatBuffer();
+                floats.get(strokes.x1, 0, count);
+                floats.get(strokes.y1, 0, count);
+                floats.get(strokes.x2, 0, count);
+                floats.get(strokes.y2, 0, count);
+                floats.get(strokes.width, 0, count);
+                strokes.count = count;
+                return strokes;
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not read " + sidecar, e);
+            return discard(sidecar);
+        }
+    }
+
+    /**
+     * Writes the strokes of a page next to its source file. The sidecar is written to a temporary
+     * file first so a partially written one is never picked up.
+     */
+    public static void write(File sidecar, File source, int pageIndex, StrokeData strokes)
+            throws IOException {
+        int count = strokes.count;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + count * ARRAYS * 4);
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(byteOrderMarker());
+        buffer.putInt(pageIndex);
+        buffer.putLong(source.length());
+        buffer.putLong(source.lastModified());
+        buffer.putInt(count);
+
+        FloatBuffer floats = buffer.asFloatBuffer();
+        floats.put(strokes.x1, 0, count);
+        floats.put(strokes.y1, 0, count);
+        floats.put(strokes.x2, 0, count);
+        floats.put(strokes.y2, 0, count);
+        floats.put(strokes.width, 0, count);
+        buffer.position(0);
+
+        File temporary = new File(sidecar.getPath() + ".tmp");
+        RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+        try {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } finally {
+            file.close();
+        }
+        if (!temporary.renameTo(sidecar)) {
+            temporary.delete();
+            throw new IOException("Could not write " + sidecar);
+        }
+    }
+
+    private static StrokeData discard(File sidecar) {
+        if (!sidecar.delete()) {
+            Log.w(TAG, "Could not delete stale " + sidecar);
+        }
+        return null;
+    }
+
+    private static int byteOrderMarker() {
+        return ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN ? 1 : 0;
+    }
+}
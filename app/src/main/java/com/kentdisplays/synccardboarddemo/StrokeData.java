@@ -0,0 +1,97 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import com.improvelectronics.sync.android.SyncCaptureReport;
+
+import java.util.Arrays;
+
+/**
+ * Line segments of a page stored as parallel primitive arrays, one entry per segment. Coordinates
+ * and widths are in digitizer units of a portrait page, x across and y down the page.
+ */
+public class StrokeData {
+
+    /**
+     * Width of a page in digitizer units. Pages are portrait while the digitizer is landscape.
+     */
+    public static final float PAGE_WIDTH = SyncCaptureReport.MAX_Y;
+
+    /**
+     * Height of a page in digitizer units.
+     */
+    public static final float PAGE_HEIGHT = SyncCaptureReport.MAX_X;
+
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    public float[] x1;
+    public float[] y1;
+    public float[] x2;
+    public float[] y2;
+    public float[] width;
+    public int count;
+
+    public StrokeData() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public StrokeData(int capacity) {
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        width = new float[capacity];
+        count = 0;
+    }
+
+    /**
+     * Appends a segment, growing the arrays when they are full.
+     */
+    public void add(float x1, float y1, float x2, float y2, float width) {
+        if (count == this.x1.length) {
+            grow(Math.max(count * 2, DEFAULT_CAPACITY));
+        }
+        this.x1[count] = x1;
+        this.y1[count] = y1;
+        this.x2[count] = x2;
+        this.y2[count] = y2;
+        this.width[count] = width;
+        count++;
+    }
+
+    /**
+     * Removes all segments while keeping the allocated arrays.
+     */
+    public void clear() {
+        count = 0;
+    }
+
+    private void grow(int capacity) {
+        x1 = Arrays.copyOf(x1, capacity);
+        y1 = Arrays.copyOf(y1, capacity);
+        x2 = Arrays.copyOf(x2, capacity);
+        y2 = Arrays.copyOf(y2, capacity);
+        width = Arrays.copyOf(width, capacity);
+    }
+}
@@ -0,0 +1,597 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming interpreter for the path construction and graphics state operators of a PDF content
+ * stream. Bytes are fed in as they become available and every stroked path is written straight
+ * into a {@link StrokeData} as line segments, without creating intermediate Strings or objects.
+ *
+ * Supported operators are m, l, c, v, y, h and re for path construction, S, s, B, B*, b and b*
+ * for stroking, f, F, f* and n for discarding a path, and w, cm, q and Q for the graphics state.
+ * Every other operator is skipped along with its operands, as are strings, names, comments and
+ * inline images.
+ */
+public class StrokeDecoder {
+
+    private static final int STATE_NONE = 0;
+    private static final int STATE_NUMBER = 1;
+    private static final int STATE_OPERATOR = 2;
+    private static final int STATE_NAME = 3;
+    private static final int STATE_STRING = 4;
+    private static final int STATE_ANGLE = 5;
+    private static final int STATE_HEX_STRING = 6;
+    private static final int STATE_COMMENT = 7;
+    private static final int STATE_INLINE_IMAGE = 8;
+
+    private static final int MAX_OPERANDS = 8;
+
+    private static final int OP_MOVE_TO = 'm';
+    private static final int OP_LINE_TO = 'l';
+    private static final int OP_CURVE_TO = 'c';
+    private static final int OP_CURVE_TO_V = 'v';
+    private static final int OP_CURVE_TO_Y = 'y';
+    private static final int OP_CLOSE_PATH = 'h';
+    private static final int OP_RECTANGLE = ('r' << 8) | 'e';
+    private static final int OP_STROKE = 'S';
+    private static final int OP_CLOSE_STROKE = 's';
+    private static final int OP_FILL = 'f';
+    private static final int OP_FILL_OLD = 'F';
+    private static final int OP_FILL_EVEN_ODD = ('f' << 8) | '*';
+    private static final int OP_FILL_STROKE = 'B';
+    private static final int OP_FILL_STROKE_EVEN_ODD = ('B' << 8) | '*';
+    private static final int OP_CLOSE_FILL_STROKE = 'b';
+    private static final int OP_CLOSE_FILL_STROKE_EVEN_ODD = ('b' << 8) | '*';
+    private static final int OP_END_PATH = 'n';
+    private static final int OP_LINE_WIDTH = 'w';
+    private static final int OP_CONCAT_MATRIX = ('c' << 8) | 'm';
+    private static final int OP_SAVE = 'q';
+    private static final int OP_RESTORE = 'Q';
+    private static final int OP_IMAGE_DATA = ('I' << 8) | 'D';
+
+    // Curves are split in half at most this many times.
+    private static final int MAX_CURVE_DEPTH = 16;
+
+    // Curve tolerance, in output units, used when none is set.
+    private static final float DEFAULT_CURVE_TOLERANCE = 1f;
+
+    // Size of one saved graphics state: the six matrix entries and the line width.
+    private static final int STATE_SIZE = 7;
+
+    private static final float[] POWERS_OF_TEN = {
+            1f, 10f, 100f, 1000f, 10000f, 100000f, 1000000f, 10000000f, 100000000f, 1000000000f
+    };
+
+    private final StrokeData mStrokes;
+
+    // Segments of the path under construction, in output coordinates.
+    private final StrokeData mPath = new StrokeData();
+
+    // Tokenizer state.
+    private final float[] mOperands = new float[MAX_OPERANDS];
+    private int mOperandCount;
+    private int mState;
+    private boolean mNegative;
+    private boolean mFraction;
+    private long mMantissa;
+    private int mFractionDigits;
+    private int mOperator;
+    private int mStringDepth;
+    private boolean mEscape;
+    private int mImageEndMatch;
+    private boolean mInlineImagePending;
+
+    // Maps default user space to output coordinates.
+    private final float[] mBaseMatrix = {1, 0, 0, 1, 0, 0};
+
+    // Graphics state: current transformation matrix {a, b, c, d, e, f} and line width.
+    private final float[] mMatrix = new float[6];
+    private float mLineWidth;
+    private float[] mStateStack = new float[STATE_SIZE * 8];
+    private int mStateDepth;
+
+    // Largest distance a flattened curve may be from the true curve, in output units.
+    private float mCurveTolerance = DEFAULT_CURVE_TOLERANCE;
+
+    // Path state, in output coordinates.
+    private boolean mHasCurrentPoint;
+    private float mCurrentX;
+    private float mCurrentY;
+    private float mStartX;
+    private float mStartY;
+
+    public StrokeDecoder(StrokeData strokes) {
+        mStrokes = strokes;
+        reset();
+    }
+
+    /**
+     * Decodes every content stream of a page, in order, into stroke segments. Curves are
+     * flattened to the tolerance for the viewing distance of pages.
+     */
+    public static StrokeData decodePage(PdfDocument document, int pageIndex) throws IOException {
+        return decodePage(document, pageIndex, Page.getCurveTolerance());
+    }
+
+    /**
+     * Decodes every content stream of a page, in order, into stroke segments.
+     *
+     * @param curveTolerance Largest distance, in page units, a flattened curve may deviate from
+     *                       the true curve.
+     */
+    public static StrokeData decodePage(PdfDocument document, int pageIndex, float curveTolerance)
+            throws IOException {
+        StrokeData strokes = new StrokeData();
+        StrokeDecoder decoder = new StrokeDecoder(strokes);
+        decoder.setMediaBox(document.getMediaBox(pageIndex));
+        decoder.setCurveTolerance(curveTolerance);
+        for (PdfDocument.Stream stream : document.getContentStreams(pageIndex)) {
+            InflaterPool.decode(document, stream, decoder);
+
+            // Content streams are concatenated, but a token never spans two of them.
+            decoder.finish();
+        }
+        return strokes;
+    }
+
+    /**
+     * Maps the media box of the page onto the {@link StrokeData#PAGE_WIDTH} by
+     * {@link StrokeData#PAGE_HEIGHT} output space and resets the graphics state.
+     *
+     * @param mediaBox {llx, lly, urx, ury} in default user space.
+     */
+    public void setMediaBox(float[] mediaBox) {
+        float width = mediaBox[2] - mediaBox[0];
+        float height = mediaBox[3] - mediaBox[1];
+        float scaleX = width != 0 ? StrokeData.PAGE_WIDTH / width : 1;
+        float scaleY = height != 0 ? StrokeData.PAGE_HEIGHT / height : 1;
+        mBaseMatrix[0] = scaleX;
+        mBaseMatrix[1] = 0;
+        mBaseMatrix[2] = 0;
+        mBaseMatrix[3] = scaleY;
+        mBaseMatrix[4] = -mediaBox[0] * scaleX;
+        mBaseMatrix[5] = -mediaBox[1] * scaleY;
+        reset();
+    }
+
+    /**
+     * Sets the largest distance, in page units, a flattened curve may deviate from the true curve.
+     * Curves are only subdivided until this is met, so flat or small curves produce few segments.
+     */
+    public void setCurveTolerance(float tolerance) {
+        mCurveTolerance = tolerance;
+    }
+
+    /**
+     * Clears all tokenizer and graphics state so the decoder can be used for another stream.
+     */
+    public void reset() {
+        mOperandCount = 0;
+        mState = STATE_NONE;
+        mInlineImagePending = false;
+        System.arraycopy(mBaseMatrix, 0, mMatrix, 0, 6);
+        mLineWidth = 1;
+        mStateDepth = 0;
+        mPath.clear();
+        mHasCurrentPoint = false;
+    }
+
+    public StrokeData getStrokes() {
+        return mStrokes;
+    }
+
+    /**
+     * Tokenizes the next chunk of the content stream. Tokens may be split across calls.
+     */
+    public void write(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            int b = buffer[i] & 0xFF;
+
+            switch (mState) {
+                case STATE_STRING:
+                    skipString(b);
+                    continue;
+                case STATE_ANGLE:
+                    // "<<" opens a dictionary, anything else is a hexadecimal string.
+                    mState = b == '<' || b == '>' ? STATE_NONE : STATE_HEX_STRING;
+                    continue;
+                case STATE_HEX_STRING:
+                    if (b == '>') mState = STATE_NONE;
+                    continue;
+                case STATE_COMMENT:
+                    if (b == '\n' || b == '\r') mState = STATE_NONE;
+                    continue;
+                case STATE_INLINE_IMAGE:
+                    skipInlineImage(b);
+                    continue;
+            }
+
+            if (isWhitespace(b)) {
+                endToken();
+            } else if (isDelimiter(b)) {
+                endToken();
+                startDelimited(b);
+            } else if (mState == STATE_OPERATOR || mState == STATE_NAME) {
+                mOperator = (mOperator << 8) | b;
+            } else if (b >= '0' && b <= '9') {
+                if (mState != STATE_NUMBER) startNumber();
+                mMantissa = mMantissa * 10 + (b - '0');
+                if (mFraction) mFractionDigits++;
+            } else if (b == '.') {
+                if (mState != STATE_NUMBER) startNumber();
+                mFraction = true;
+            } else if (b == '-' || b == '+') {
+                endToken();
+                startNumber();
+                mNegative = b == '-';
+            } else {
+                endToken();
+                mState = STATE_OPERATOR;
+                mOperator = b;
+            }
+        }
+    }
+
+    /**
+     * Flushes a token that is still pending at the end of the stream.
+     */
+    public void finish() {
+        if (mState == STATE_NUMBER || mState == STATE_OPERATOR || mState == STATE_NAME) {
+            endToken();
+        }
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+    }
+
+    private static boolean isDelimiter(int b) {
+        return b == '(' || b == ')' || b == '<' || b == '>' || b == '[' || b == ']'
+                || b == '{' || b == '}' || b == '/' || b == '%';
+    }
+
+    private void startDelimited(int b) {
+        switch (b) {
+            case '(':
+                mState = STATE_STRING;
+                mStringDepth = 1;
+                mEscape = false;
+                break;
+            case '<':
+                mState = STATE_ANGLE;
+                break;
+            case '/':
+                mState = STATE_NAME;
+                break;
+            case '%':
+                mState = STATE_COMMENT;
+                break;
+            default:
+                // Array and dictionary brackets carry no meaning for path operators.
+                break;
+        }
+    }
+
+    private void skipString(int b) {
+        if (mEscape) {
+            mEscape = false;
+        } else if (b == '\\') {
+            mEscape = true;
+        } else if (b == '(') {
+            mStringDepth++;
+        } else if (b == ')' && --mStringDepth == 0) {
+            mState = STATE_NONE;
+        }
+    }
+
+    /**
+     * Skips binary inline image data up to the whitespace delimited "EI" operator.
+     */
+    private void skipInlineImage(int b) {
+        if (isWhitespace(b)) {
+            if (mImageEndMatch == 3) {
+                mState = STATE_NONE;
+                mOperandCount = 0;
+            } else {
+                mImageEndMatch = 1;
+            }
+        } else if (b == 'E' && mImageEndMatch == 1) {
+            mImageEndMatch = 2;
+        } else if (b == 'I' && mImageEndMatch == 2) {
+            mImageEndMatch = 3;
+        } else {
+            mImageEndMatch = 0;
+        }
+    }
+
+    private void startNumber() {
+        mState = STATE_NUMBER;
+        mNegative = false;
+        mFraction = false;
+        mMantissa = 0;
+        mFractionDigits = 0;
+    }
+
+    private void endToken() {
+        int state = mState;
+        mState = STATE_NONE;
+        if (state == STATE_NUMBER) {
+            pushOperand(numberValue());
+        } else if (state == STATE_OPERATOR) {
+            executeOperator(mOperator);
+            mOperandCount = 0;
+            if (mInlineImagePending) {
+                mInlineImagePending = false;
+                mState = STATE_INLINE_IMAGE;
+                mImageEndMatch = 0;
+            }
+        }
+    }
+
+    private float numberValue() {
+        float value = mMantissa;
+        int digits = mFractionDigits;
+        while (digits > 0) {
+            int step = digits < POWERS_OF_TEN.length ? digits : POWERS_OF_TEN.length - 1;
+            value /= POWERS_OF_TEN[step];
+            digits -= step;
+        }
+        return mNegative ? -value : value;
+    }
+
+    private void pushOperand(float value) {
+        if (mOperandCount == MAX_OPERANDS) {
+            // Only the last operands matter to an operator, drop the oldest one.
+            System.arraycopy(mOperands, 1, mOperands, 0, MAX_OPERANDS - 1);
+            mOperandCount--;
+        }
+        mOperands[mOperandCount++] = value;
+    }
+
+    private void executeOperator(int operator) {
+        float[] o = mOperands;
+        int n = mOperandCount;
+        switch (operator) {
+            case OP_MOVE_TO:
+                if (n >= 2) moveTo(o[n - 2], o[n - 1]);
+                break;
+            case OP_LINE_TO:
+                if (n >= 2) lineTo(o[n - 2], o[n - 1]);
+                break;
+            case OP_CURVE_TO:
+                if (n >= 6) curveTo(o[n - 6], o[n - 5], o[n - 4], o[n - 3], o[n - 2], o[n - 1]);
+                break;
+            case OP_CURVE_TO_V:
+                if (n >= 4 && mHasCurrentPoint) {
+                    curveToOutput(mCurrentX, mCurrentY, transformX(o[n - 4], o[n - 3]),
+                            transformY(o[n - 4], o[n - 3]), transformX(o[n - 2], o[n - 1]),
+                            transformY(o[n - 2], o[n - 1]));
+                }
+                break;
+            case OP_CURVE_TO_Y:
+                if (n >= 4) curveTo(o[n - 4], o[n - 3], o[n - 2], o[n - 1], o[n - 2], o[n - 1]);
+                break;
+            case OP_CLOSE_PATH:
+                closePath();
+                break;
+            case OP_RECTANGLE:
+                if (n >= 4) {
+                    float x = o[n - 4];
+                    float y = o[n - 3];
+                    float w = o[n - 2];
+                    float h = o[n - 1];
+                    moveTo(x, y);
+                    lineTo(x + w, y);
+                    lineTo(x + w, y + h);
+                    lineTo(x, y + h);
+                    closePath();
+                }
+                break;
+            case OP_CLOSE_STROKE:
+            case OP_CLOSE_FILL_STROKE:
+            case OP_CLOSE_FILL_STROKE_EVEN_ODD:
+                closePath();
+                strokePath();
+                break;
+            case OP_STROKE:
+            case OP_FILL_STROKE:
+            case OP_FILL_STROKE_EVEN_ODD:
+                strokePath();
+                break;
+            case OP_FILL:
+            case OP_FILL_OLD:
+            case OP_FILL_EVEN_ODD:
+            case OP_END_PATH:
+                // Only strokes are drawn, filled areas are discarded.
+                endPath();
+                break;
+            case OP_LINE_WIDTH:
+                if (n >= 1) mLineWidth = o[n - 1];
+                break;
+            case OP_CONCAT_MATRIX:
+                if (n >= 6) {
+                    concatMatrix(o[n - 6], o[n - 5], o[n - 4], o[n - 3], o[n - 2], o[n - 1]);
+                }
+                break;
+            case OP_SAVE:
+                saveState();
+                break;
+            case OP_RESTORE:
+                restoreState();
+                break;
+            case OP_IMAGE_DATA:
+                mInlineImagePending = true;
+                break;
+            default:
+                // Operators that do not affect stroke geometry are ignored.
+                break;
+        }
+    }
+
+    private float transformX(float x, float y) {
+        return mMatrix[0] * x + mMatrix[2] * y + mMatrix[4];
+    }
+
+    private float transformY(float x, float y) {
+        return mMatrix[1] * x + mMatrix[3] * y + mMatrix[5];
+    }
+
+    private void moveTo(float x, float y) {
+        mCurrentX = mStartX = transformX(x, y);
+        mCurrentY = mStartY = transformY(x, y);
+        mHasCurrentPoint = true;
+    }
+
+    private void lineTo(float x, float y) {
+        if (!mHasCurrentPoint) return;
+        lineToOutput(transformX(x, y), transformY(x, y));
+    }
+
+    private void lineToOutput(float x, float y) {
+        mPath.add(mCurrentX, mCurrentY, x, y, 0);
+        mCurrentX = x;
+        mCurrentY = y;
+    }
+
+    private void curveTo(float x1, float y1, float x2, float y2, float x3, float y3) {
+        if (!mHasCurrentPoint) return;
+        // Affine transforms preserve Bezier curves, so the control points are transformed first.
+        curveToOutput(transformX(x1, y1), transformY(x1, y1), transformX(x2, y2),
+                transformY(x2, y2), transformX(x3, y3), transformY(x3, y3));
+    }
+
+    private void curveToOutput(float x1, float y1, float x2, float y2, float x3, float y3) {
+        flattenCurve(mCurrentX, mCurrentY, x1, y1, x2, y2, x3, y3, 0);
+    }
+
+    /**
+     * Adaptively subdivides a cubic Bezier curve at its midpoint until each piece is within the
+     * curve tolerance of its chord.
+     */
+    private void flattenCurve(float x0, float y0, float x1, float y1, float x2, float y2,
+                              float x3, float y3, int depth) {
+        if (depth >= MAX_CURVE_DEPTH || isFlat(x0, y0, x1, y1, x2, y2, x3, y3)) {
+            lineToOutput(x3, y3);
+            return;
+        }
+
+        // de Casteljau split at t = 0.5.
+        float x01 = (x0 + x1) * 0.5f;
+        float y01 = (y0 + y1) * 0.5f;
+        float x12 = (x1 + x2) * 0.5f;
+        float y12 = (y1 + y2) * 0.5f;
+        float x23 = (x2 + x3) * 0.5f;
+        float y23 = (y2 + y3) * 0.5f;
+        float x012 = (x01 + x12) * 0.5f;
+        float y012 = (y01 + y12) * 0.5f;
+        float x123 = (x12 + x23) * 0.5f;
+        float y123 = (y12 + y23) * 0.5f;
+        float xMid = (x012 + x123) * 0.5f;
+        float yMid = (y012 + y123) * 0.5f;
+
+        flattenCurve(x0, y0, x01, y01, x012, y012, xMid, yMid, depth + 1);
+        flattenCurve(xMid, yMid, x123, y123, x23, y23, x3, y3, depth + 1);
+    }
+
+    /**
+     * Returns true when no point of the curve is further than the tolerance from its chord, using
+     * the control point bound 16 * d^2 <= max(ux^2, vx^2) + max(uy^2, vy^2).
+     */
+    private boolean isFlat(float x0, float y0, float x1, float y1, float x2, float y2,
+                           float x3, float y3) {
+        float ux = 3 * x1 - 2 * x0 - x3;
+        float uy = 3 * y1 - 2 * y0 - y3;
+        float vx = 3 * x2 - x0 - 2 * x3;
+        float vy = 3 * y2 - y0 - 2 * y3;
+        ux *= ux;
+        uy *= uy;
+        vx *= vx;
+        vy *= vy;
+        float tolerance = mCurveTolerance;
+        return Math.max(ux, vx) + Math.max(uy, vy) <= 16 * tolerance * tolerance;
+    }
+
+    private void closePath() {
+        if (!mHasCurrentPoint) return;
+        if (mCurrentX != mStartX || mCurrentY != mStartY) {
+            lineToOutput(mStartX, mStartY);
+        }
+    }
+
+    private void strokePath() {
+        // Line widths are in user space, scale them by the area change of the matrix.
+        float determinant = mMatrix[0] * mMatrix[3] - mMatrix[1] * mMatrix[2];
+        float width = mLineWidth * (float) Math.sqrt(Math.abs(determinant));
+
+        StrokeData path = mPath;
+        for (int i = 0; i < path.count; i++) {
+            mStrokes.add(path.x1[i], path.y1[i], path.x2[i], path.y2[i], width);
+        }
+        endPath();
+    }
+
+    private void endPath() {
+        mPath.clear();
+        mHasCurrentPoint = false;
+    }
+
+    private void concatMatrix(float a, float b, float c, float d, float e, float f) {
+        float[] m = mMatrix;
+        float ma = a * m[0] + b * m[2];
+        float mb = a * m[1] + b * m[3];
+        float mc = c * m[0] + d * m[2];
+        float md = c * m[1] + d * m[3];
+        float me = e * m[0] + f * m[2] + m[4];
+        float mf = e * m[1] + f * m[3] + m[5];
+        m[0] = ma;
+        m[1] = mb;
+        m[2] = mc;
+        m[3] = md;
+        m[4] = me;
+        m[5] = mf;
+    }
+
+    private void saveState() {
+        int offset = mStateDepth * STATE_SIZE;
+        if (offset + STATE_SIZE > mStateStack.length) {
+            mStateStack = Arrays.copyOf(mStateStack, mStateStack.length * 2);
+        }
+        System.arraycopy(mMatrix, 0, mStateStack, offset, 6);
+        mStateStack[offset + 6] = mLineWidth;
+        mStateDepth++;
+    }
+
+    private void restoreState() {
+        // Unbalanced restores are ignored.
+        if (mStateDepth == 0) return;
+        mStateDepth--;
+        int offset = mStateDepth * STATE_SIZE;
+        System.arraycopy(mStateStack, offset, mMatrix, 0, 6);
+        mLineWidth = mStateStack[offset + 6];
+    }
+}
@@ -0,0 +1,280 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+/**
+ * Uniform grid over the segments of a page that finds the segments near a point or within a
+ * rectangle without visiting every segment. Each cell lists the segments whose drawn bounding box
+ * overlaps it, and the lists of all cells are packed into a single array.
+ *
+ * Coordinates are in digitizer units like {@link StrokeData}. An index never changes after it is
+ * built, so it may be built on any thread and queried from several.
+ */
+public final class StrokeIndex {
+
+    // Average number of segments per cell the grid is sized for.
+    private static final int SEGMENTS_PER_CELL = 4;
+    private static final int MAX_CELLS_PER_SIDE = 256;
+
+    // Digitizer units per page unit along each axis. Strokes are as wide in page units on both
+    // axes, so in digitizer units they are wider along y than along x.
+    private static final float UNITS_PER_PAGE_X = StrokeData.PAGE_WIDTH / 2;
+    private static final float UNITS_PER_PAGE_Y = StrokeData.PAGE_HEIGHT / 2;
+
+    private final StrokeData mStrokes;
+    private final float mMinX;
+    private final float mMinY;
+    private final float mMaxX;
+    private final float mMaxY;
+    private final float mInverseCellWidth;
+    private final float mInverseCellHeight;
+    private final int mColumns;
+    private final int mRows;
+
+    // Segments of cell c are mSegments[mCellFirst[c]] up to mSegments[mCellFirst[c + 1]].
+    private final int[] mCellFirst;
+    private final int[] mSegments;
+
+    /**
+     * Builds the index, which keeps a reference to the segments.
+     */
+    public StrokeIndex(StrokeData strokes) {
+        mStrokes = strokes;
+        int count = strokes.count;
+
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < count; i++) {
+            float reach = getReach(i);
+            float reachX = reach * UNITS_PER_PAGE_X;
+            float reachY = reach * UNITS_PER_PAGE_Y;
+            minX = Math.min(minX, Math.min(strokes.x1[i], strokes.x2[i]) - reachX);
+            minY = Math.min(minY, Math.min(strokes.y1[i], strokes.y2[i]) - reachY);
+            maxX = Math.max(maxX, Math.max(strokes.x1[i], strokes.x2[i]) + reachX);
+            maxY = Math.max(maxY, Math.max(strokes.y1[i], strokes.y2[i]) + reachY);
+        }
+        if (count == 0) {
+            minX = minY = 0;
+            maxX = maxY = 1;
+        }
+        float width = Math.max(maxX - minX, 1);
+        float height = Math.max(maxY - minY, 1);
+
+        // Roughly square cells, as many as needed for the average number of segments per cell.
+        int cells = Math.max(1, count / SEGMENTS_PER_CELL);
+        mColumns = clamp(Math.round((float) Math.sqrt(cells * width / height)), 1,
+                MAX_CELLS_PER_SIDE);
+        mRows = clamp(Math.round((float) cells / mColumns), 1, MAX_CELLS_PER_SIDE);
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = maxX;
+        mMaxY = maxY;
+        mInverseCellWidth = mColumns / width;
+        mInverseCellHeight = mRows / height;
+
+        // Count the segments of every cell, then fill in the packed lists.
+        mCellFirst = new int[mColumns * mRows + 1];
+        for (int i = 0; i < count; i++) {
+            int column1 = getMinColumn(i);
+            int column2 = getMaxColumn(i);
+            int row2 = getMaxRow(i);
+            for (int row = getMinRow(i); row <= row2; row++) {
+                for (int column = column1; column <= column2; column++) {
+                    mCellFirst[row * mColumns + column + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < mColumns * mRows; cell++) {
+            mCellFirst[cell + 1] += mCellFirst[cell];
+        }
+        mSegments = new int[mCellFirst[mColumns * mRows]];
+        int[] next = new int[mColumns * mRows];
+        System.arraycopy(mCellFirst, 0, next, 0, next.length);
+        for (int i = 0; i < count; i++) {
+            int column1 = getMinColumn(i);
+            int column2 = getMaxColumn(i);
+            int row2 = getMaxRow(i);
+            for (int row = getMinRow(i); row <= row2; row++) {
+                for (int column = column1; column <= column2; column++) {
+                    mSegments[next[row * mColumns + column]++] = i;
+                }
+            }
+        }
+    }
+
+    public StrokeData getStrokes() {
+        return mStrokes;
+    }
+
+    /**
+     * Gets the box around the segments as they are drawn, in digitizer coordinates.
+     *
+     * @param bounds Receives the minimum x, minimum y, maximum x and maximum y.
+     */
+    public void getBounds(float[] bounds) {
+        bounds[0] = mMinX;
+        bounds[1] = mMinY;
+        bounds[2] = mMaxX;
+        bounds[3] = mMaxY;
+    }
+
+    /**
+     * Finds the segments whose drawn bounding box overlaps a rectangle.
+     *
+     * @param results Receives the indices of the segments found, as many as fit.
+     * @return the number of segments found, which may be more than the length of results.
+     */
+    public int queryRect(float minX, float minY, float maxX, float maxY, int[] results) {
+        return query(minX, minY, maxX, maxY, false, 0, 0, 0, results);
+    }
+
+    /**
+     * Finds the segments that are drawn within a distance of a point.
+     *
+     * @param radius Largest distance from the point to the edge of a stroke.
+     * @param results Receives the indices of the segments found, as many as fit.
+     * @return the number of segments found, which may be more than the length of results.
+     */
+    public int queryPoint(float x, float y, float radius, int[] results) {
+        return query(x - radius, y - radius, x + radius, y + radius, true, x, y, radius, results);
+    }
+
+    private int query(float minX, float minY, float maxX, float maxY, boolean nearPoint,
+                      float x, float y, float radius, int[] results) {
+        StrokeData strokes = mStrokes;
+        int column1 = getColumn(minX);
+        int column2 = getColumn(maxX);
+        int row1 = getRow(minY);
+        int row2 = getRow(maxY);
+        int found = 0;
+        for (int row = row1; row <= row2; row++) {
+            for (int column = column1; column <= column2; column++) {
+                int cell = row * mColumns + column;
+                for (int k = mCellFirst[cell]; k < mCellFirst[cell + 1]; k++) {
+                    int i = mSegments[k];
+                    // A segment in several cells is only reported from the first cell both it
+                    // and the query overlap.
+                    if (column != Math.max(column1, getMinColumn(i))
+                            || row != Math.max(row1, getMinRow(i))) {
+                        continue;
+                    }
+
+                    float segmentReach = getReach(i);
+                    float reachX = segmentReach * UNITS_PER_PAGE_X;
+                    float reachY = segmentReach * UNITS_PER_PAGE_Y;
+                    if (Math.min(strokes.x1[i], strokes.x2[i]) - reachX > maxX
+                            || Math.max(strokes.x1[i], strokes.x2[i]) + reachX < minX
+                            || Math.min(strokes.y1[i], strokes.y2[i]) - reachY > maxY
+                            || Math.max(strokes.y1[i], strokes.y2[i]) + reachY < minY) {
+                        continue;
+                    }
+                    if (nearPoint) {
+                        // Measured against the body of the stroke, without miters, along the axis
+                        // where it is widest.
+                        float reach = radius
+                                + getHalfWidth(i) * Math.max(UNITS_PER_PAGE_X, UNITS_PER_PAGE_Y);
+                        if (distanceSquared(i, x, y) > reach * reach) continue;
+                    }
+
+                    if (found < results.length) results[found] = i;
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the squared distance of a point from the center line of a segment.
+     */
+    private float distanceSquared(int i, float x, float y) {
+        float ax = mStrokes.x1[i];
+        float ay = mStrokes.y1[i];
+        float dx = mStrokes.x2[i] - ax;
+        float dy = mStrokes.y2[i] - ay;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0 ? 0 : ((x - ax) * dx + (y - ay) * dy) / lengthSquared;
+        t = t < 0 ? 0 : (t > 1 ? 1 : t);
+        float ex = ax + t * dx - x;
+        float ey = ay + t * dy - y;
+        return ex * ex + ey * ey;
+    }
+
+    /**
+     * Returns half the width a segment is drawn with, in page units, see StrokeMeshBuilder.
+     */
+    private float getHalfWidth(int i) {
+        float width = mStrokes.width[i] * PageMesh.STROKE_WIDTH_SCALE;
+        return Math.max(width, PageMesh.MIN_STROKE_WIDTH) / 2;
+    }
+
+    /**
+     * Returns how far, in page units, the drawn stroke of a segment may reach beyond its center
+     * line. Miter joins reach up to the miter limit in half widths.
+     */
+    private float getReach(int i) {
+        return getHalfWidth(i) * StrokeMeshBuilder.MITER_LIMIT;
+    }
+
+    private int getMinColumn(int i) {
+        float reach = getReach(i) * UNITS_PER_PAGE_X;
+        return getColumn(Math.min(mStrokes.x1[i], mStrokes.x2[i]) - reach);
+    }
+
+    private int getMaxColumn(int i) {
+        float reach = getReach(i) * UNITS_PER_PAGE_X;
+        return getColumn(Math.max(mStrokes.x1[i], mStrokes.x2[i]) + reach);
+    }
+
+    private int getMinRow(int i) {
+        float reach = getReach(i) * UNITS_PER_PAGE_Y;
+        return getRow(Math.min(mStrokes.y1[i], mStrokes.y2[i]) - reach);
+    }
+
+    private int getMaxRow(int i) {
+        float reach = getReach(i) * UNITS_PER_PAGE_Y;
+        return getRow(Math.max(mStrokes.y1[i], mStrokes.y2[i]) + reach);
+    }
+
+    private int getColumn(float x) {
+        return clamp((int) Math.floor((x - mMinX) * mInverseCellWidth), 0, mColumns - 1);
+    }
+
+    private int getRow(float y) {
+        return clamp((int) Math.floor((y - mMinY) * mInverseCellHeight), 0, mRows - 1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return value < min ? min : (value > max ? max : value);
+    }
+
+    /**
+     * Returns the approximate number of bytes held by the grid, not counting the segments.
+     */
+    public int getSizeInBytes() {
+        return (mCellFirst.length + mSegments.length) * 4;
+    }
+}
@@ -0,0 +1,638 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+package com.kentdisplays.synccardboarddemo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tessellates the segments of a page into an indexed {@link PageMesh} of triangle strips.
+ *
+ * Consecutive segments where one ends where the next starts are stitched into a polyline and
+ * emitted as a single strip with a pair of vertices per point, using a miter join where the
+ * polyline bends and a bevel where the miter would get too long. The width of the pair at a join
+ * is the average of the widths of both segments. Strips within a chunk are linked by repeating
+ * indices, which only produces degenerate triangles, so a whole chunk is drawn with one call. A new
+ * chunk is started whenever the vertices would no longer fit in 16 bit indices, and at the start of
+ * every level of detail.
+ *
+ * The geometry of the segments is computed in batches by {@link #computeSegments}, one tight loop
+ * over the parallel arrays of {@link StrokeData} that finds the unit normal of each segment with a
+ * single square root, and the strips are then emitted from the results.
+ *
+ * The mesh is built in two passes over the segments. The first only counts the vertices and
+ * indices and measures the bounds of the vertices, so the second can quantize the positions over
+ * those bounds and write them into one direct buffer that is allocated once. Vertices are staged in
+ * small arrays and copied into the buffer in bulk, and builders are pooled so the staging arrays
+ * are reused between page loads.
+ *
+ * Both passes work on ranges of whole polylines, each starting a chunk of its own. Once the first
+ * pass has counted every range, the position of each range in the output is known, so the ranges
+ * can be written independently into their own slices of the buffer. Large pages are split into
+ * many ranges that are counted and written in parallel on a shared pool of threads, smaller pages
+ * are tessellated on the calling thread with one range per level of detail.
+ */
+final class StrokeMeshBuilder {
+
+    private static final VertexFormat FORMAT = VertexFormat.STRIPS;
+    private static final int COORDS_PER_VERTEX = 2;
+
+    // Joins longer than this many half widths are beveled instead of mitered.
+    static final float MITER_LIMIT = 2.0f;
+    // Joins are beveled when the squared length of the sum of both unit normals is below this.
+    private static final float MIN_MITER_LENGTH_SQUARED = 4 / (MITER_LIMIT * MITER_LIMIT);
+
+    private static final int BATCH_SEGMENTS = 512;
+    private static final int STAGING_VERTICES = 1024;
+    private static final int STAGING_INDICES = 2048;
+    private static final int MAX_POOLED = 4;
+
+    // Pages with fewer segments are tessellated on the calling thread.
+    private static final int PARALLEL_MIN_SEGMENTS = 32768;
+    // Segments per range when tessellating in parallel, rounded up to the end of a polyline.
+    private static final int RANGE_SEGMENTS = 16384;
+
+    private static final ArrayDeque<StrokeMeshBuilder> sPool = new ArrayDeque<StrokeMeshBuilder>();
+    private static ExecutorService sExecutor;
+
+    /**
+     * Run of whole polylines of one level of detail, tessellated by a single builder.
+     */
+    private static final class Range {
+        final StrokeData strokes;
+        final int first;
+        final int end;
+
+        // Output of the range, measured by the first pass.
+        int vertexCount;
+        int indexCount;
+        int chunkCount;
+        float minX, minY, maxX, maxY;
+
+        // Where the output of the range starts.
+        int firstVertex;
+        int firstIndex;
+        int firstChunk;
+
+        Range(StrokeData strokes, int first, int end) {
+            this.strokes = strokes;
+            this.first = first;
+            this.end = end;
+        }
+    }
+
+    private final short[] mPositionStaging = new short[STAGING_VERTICES * COORDS_PER_VERTEX];
+    private final short[] mIndexStaging = new short[STAGING_INDICES];
+
+    // Segments of the current batch in page coordinates, with their unit normal and half width.
+    private final float[] mX1 = new float[BATCH_SEGMENTS];
+    private final float[] mY1 = new float[BATCH_SEGMENTS];
+    private final float[] mX2 = new float[BATCH_SEGMENTS];
+    private final float[] mY2 = new float[BATCH_SEGMENTS];
+    private final float[] mNormalsX = new float[BATCH_SEGMENTS];
+    private final float[] mNormalsY = new float[BATCH_SEGMENTS];
+    private final float[] mHalfWidths = new float[BATCH_SEGMENTS];
+
+    // Output of the writing pass, null while counting.
+    private ShortBuffer mPositions;
+    private ShortBuffer mIndices;
+    private int[] mChunkFirstVertex;
+    private int[] mChunkFirstIndex;
+    // Where the output of the range being written starts.
+    private int mVertexBase;
+    private int mIndexBase;
+    private int mChunkBase;
+
+    private int mVertexCount;
+    private int mIndexCount;
+    private int mChunkCount;
+    private boolean mChunkPending;
+    private int mStagedVertices;
+    private int mStagedIndices;
+
+    // Bounds of the vertices, measured while counting.
+    private float mMinX, mMinY, mMaxX, mMaxY;
+    // Quantization used while writing.
+    private final float[] mOrigin = new float[2];
+    private final float[] mInverseScale = new float[2];
+
+    // State of the strip being emitted.
+    private int mChunkStart;
+    private int mStripVertices;
+    private boolean mLinkPending;
+    private int mLastIndex;
+    private float mLeftX, mLeftY, mRightX, mRightY;
+
+    // Unit normal, half width and end point of the previous segment of the polyline.
+    private float mNormalX, mNormalY, mHalfWidth;
+    private float mLastEndX, mLastEndY;
+
+    private StrokeMeshBuilder() {
+    }
+
+    /**
+     * Tessellates every level of detail of the segments into strips, using pooled builders.
+     *
+     * @param strokes Segments of the page in digitizer coordinates.
+     */
+    static PageMesh tessellate(final StrokeData strokes) {
+        boolean parallel = strokes.count >= PARALLEL_MIN_SEGMENTS
+                && Runtime.getRuntime().availableProcessors() > 1;
+
+        final StrokeData[] levels = new StrokeData[PageMesh.LEVEL_COUNT];
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int level = 0; level < levels.length; level++) {
+            final int l = level;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    levels[l] = PolylineSimplifier.simplifyLevel(strokes, l);
+                }
+            });
+        }
+        runAll(tasks, parallel);
+
+        // Split the levels into ranges from the coarsest level to level 0.
+        List<Range> ranges = new ArrayList<Range>();
+        int[] levelFirstRange = new int[levels.length];
+        for (int i = 0; i < levels.length; i++) {
+            levelFirstRange[i] = ranges.size();
+            split(levels[levels.length - 1 - i], parallel ? RANGE_SEGMENTS : Integer.MAX_VALUE,
+                    ranges);
+        }
+
+        // Count and measure the output of every range.
+        tasks.clear();
+        for (final Range range : ranges) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    StrokeMeshBuilder builder = obtain();
+                    try {
+                        builder.count(range);
+                    } finally {
+                        recycle(builder);
+                    }
+                }
+            });
+        }
+        runAll(tasks, parallel);
+
+        int vertexCount = 0;
+        int indexCount = 0;
+        int chunkCount = 0;
+        float minX = Float.POSITIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY;
+        float maxY = Float.NEGATIVE_INFINITY;
+        for (Range range : ranges) {
+            range.firstVertex = vertexCount;
+            range.firstIndex = indexCount;
+            range.firstChunk = chunkCount;
+            vertexCount += range.vertexCount;
+            indexCount += range.indexCount;
+            chunkCount += range.chunkCount;
+            minX = Math.min(minX, range.minX);
+            minY = Math.min(minY, range.minY);
+            maxX = Math.max(maxX, range.maxX);
+            maxY = Math.max(maxY, range.maxY);
+        }
+        int[] levelFirstChunk = new int[levels.length + 1];
+        for (int i = 0; i < levels.length; i++) {
+            int first = levelFirstRange[i];
+            levelFirstChunk[i] = first < ranges.size() ? ranges.get(first).firstChunk : chunkCount;
+        }
+        levelFirstChunk[levels.length] = chunkCount;
+
+        final float[] origin = new float[2];
+        float[] scale = new float[2];
+        if (vertexCount > 0) {
+            origin[0] = (minX + maxX) / 2;
+            origin[1] = (minY + maxY) / 2;
+            scale[0] = Math.max((maxX - minX) / 2, Float.MIN_NORMAL) / PageMesh.QUANTIZED_MAX;
+            scale[1] = Math.max((maxY - minY) / 2, Float.MIN_NORMAL) / PageMesh.QUANTIZED_MAX;
+        } else {
+            scale[0] = scale[1] = 1.0f;
+        }
+        final float[] inverseScale = {1 / scale[0], 1 / scale[1]};
+
+        final int vertexBytes = vertexCount * FORMAT.stride;
+        final ByteBuffer output = ByteBuffer.allocateDirect(vertexBytes + indexCount * 2);
+        output.order(ByteOrder.nativeOrder());
+        ByteBuffer vertexData = slice(output, 0, vertexBytes);
+        ShortBuffer indices = sliceShorts(output, vertexBytes, indexCount);
+        final int[] chunkFirstVertex = new int[chunkCount + 1];
+        final int[] chunkFirstIndex = new int[chunkCount + 1];
+
+        // Write every range into its own slice of the output.
+        tasks.clear();
+        for (final Range range : ranges) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    ShortBuffer rangePositions = sliceShorts(output,
+                            range.firstVertex * FORMAT.stride,
+                            range.vertexCount * COORDS_PER_VERTEX);
+                    ShortBuffer rangeIndices = sliceShorts(output,
+                            vertexBytes + range.firstIndex * 2, range.indexCount);
+                    StrokeMeshBuilder builder = obtain();
+                    try {
+                        builder.write(range, rangePositions, rangeIndices, chunkFirstVertex,
+                                chunkFirstIndex, origin, inverseScale);
+                    } finally {
+                        recycle(builder);
+                    }
+                }
+            });
+        }
+        runAll(tasks, parallel);
+        chunkFirstVertex[chunkCount] = vertexCount;
+        chunkFirstIndex[chunkCount] = indexCount;
+
+        return new PageMesh(strokes, FORMAT, vertexData, origin, scale, indices,
+                chunkFirstVertex, chunkFirstIndex, levelFirstChunk);
+    }
+
+    /**
+     * Splits segments into ranges of at least the given size that end where a polyline ends.
+     */
+    private static void split(StrokeData strokes, int rangeSegments, List<Range> ranges) {
+        int first = 0;
+        while (first < strokes.count) {
+            int end = first + Math.min(rangeSegments, strokes.count - first);
+            while (end < strokes.count
+                    && strokes.x1[end] == strokes.x2[end - 1]
+                    && strokes.y1[end] == strokes.y2[end - 1]) {
+                end++;
+            }
+            ranges.add(new Range(strokes, first, end));
+            first = end;
+        }
+    }
+
+    /**
+     * Counts the vertices, indices and chunks of a range and measures the bounds of its vertices.
+     */
+    private void count(Range range) {
+        reset();
+        mMinX = mMinY = Float.POSITIVE_INFINITY;
+        mMaxX = mMaxY = Float.NEGATIVE_INFINITY;
+        emitPolylines(range.strokes, range.first, range.end);
+        range.vertexCount = mVertexCount;
+        range.indexCount = mIndexCount;
+        range.chunkCount = mChunkCount;
+        range.minX = mMinX;
+        range.minY = mMinY;
+        range.maxX = mMaxX;
+        range.maxY = mMaxY;
+    }
+
+    /**
+     * Writes a counted range.
+     *
+     * @param positions Slice of the vertex data for the range.
+     * @param indices Slice of the indices for the range.
+     * @param chunkFirstVertex Chunk table of the whole mesh.
+     * @param chunkFirstIndex Chunk table of the whole mesh.
+     */
+    private void write(Range range, ShortBuffer positions, ShortBuffer indices,
+                       int[] chunkFirstVertex, int[] chunkFirstIndex, float[] origin,
+                       float[] inverseScale) {
+        reset();
+        mVertexBase = range.firstVertex;
+        mIndexBase = range.firstIndex;
+        mChunkBase = range.firstChunk;
+        mOrigin[0] = origin[0];
+        mOrigin[1] = origin[1];
+        mInverseScale[0] = inverseScale[0];
+        mInverseScale[1] = inverseScale[1];
+        mPositions = positions;
+        mIndices = indices;
+        mChunkFirstVertex = chunkFirstVertex;
+        mChunkFirstIndex = chunkFirstIndex;
+        try {
+            emitPolylines(range.strokes, range.first, range.end);
+            flushVertices();
+            flushIndices();
+        } finally {
+            mPositions = null;
+            mIndices = null;
+            mChunkFirstVertex = null;
+            mChunkFirstIndex = null;
+        }
+    }
+
+    private void reset() {
+        mVertexCount = 0;
+        mIndexCount = 0;
+        mChunkCount = 0;
+        mChunkPending = true;
+        mStagedVertices = 0;
+        mStagedIndices = 0;
+        mChunkStart = 0;
+        mStripVertices = 0;
+        mLinkPending = false;
+    }
+
+    /**
+     * Stitches the segments into polylines and emits a strip for each. Segments without length
+     * are skipped, they were never visible.
+     */
+    private void emitPolylines(StrokeData strokes, int start, int end) {
+        int previous = -1;
+        for (int first = start; first < end; first += BATCH_SEGMENTS) {
+            int count = Math.min(BATCH_SEGMENTS, end - first);
+            computeSegments(strokes, first, count, mX1, mY1, mX2, mY2, mNormalsX, mNormalsY,
+                    mHalfWidths);
+
+            for (int j = 0; j < count; j++) {
+                float normalX = mNormalsX[j];
+                float normalY = mNormalsY[j];
+                if (normalX == 0 && normalY == 0) continue;
+                float halfWidth = mHalfWidths[j];
+
+                int i = first + j;
+                boolean connected = previous >= 0
+                        && strokes.x1[i] == strokes.x2[previous]
+                        && strokes.y1[i] == strokes.y2[previous];
+                if (!connected) {
+                    if (previous >= 0) {
+                        pair(mLastEndX, mLastEndY, mNormalX, mNormalY, mHalfWidth);
+                    }
+                    beginStrip();
+                    pair(mX1[j], mY1[j], normalX, normalY, halfWidth);
+                } else {
+                    join(mX1[j], mY1[j], normalX, normalY, halfWidth);
+                }
+
+                mNormalX = normalX;
+                mNormalY = normalY;
+                mHalfWidth = halfWidth;
+                mLastEndX = mX2[j];
+                mLastEndY = mY2[j];
+                previous = i;
+            }
+        }
+        if (previous >= 0) {
+            pair(mLastEndX, mLastEndY, mNormalX, mNormalY, mHalfWidth);
+        }
+    }
+
+    /**
+     * Converts a run of segments to page coordinates and computes their unit normals and half
+     * widths. Segments without length get a normal of (0, 0). The results are written to the
+     * start of the output arrays.
+     *
+     * @param strokes Segments in digitizer coordinates.
+     * @param first First segment of the run.
+     * @param count Number of segments in the run.
+     */
+    static void computeSegments(StrokeData strokes, int first, int count, float[] x1, float[] y1,
+                                float[] x2, float[] y2, float[] normalX, float[] normalY,
+                                float[] halfWidth) {
+        final float scaleX = 2 / StrokeData.PAGE_WIDTH;
+        final float scaleY = 2 / StrokeData.PAGE_HEIGHT;
+        final float[] sx1 = strokes.x1;
+        final float[] sy1 = strokes.y1;
+        final float[] sx2 = strokes.x2;
+        final float[] sy2 = strokes.y2;
+        final float[] sw = strokes.width;
+        for (int j = 0; j < count; j++) {
+            int i = first + j;
+            float ax = sx1[i] * scaleX - 1;
+            float ay = sy1[i] * scaleY - 1;
+            float bx = sx2[i] * scaleX - 1;
+            float by = sy2[i] * scaleY - 1;
+            float dx = bx - ax;
+            float dy = by - ay;
+            float lengthSquared = dx * dx + dy * dy;
+            float inverseLength = lengthSquared > 0 ? (float) (1 / Math.sqrt(lengthSquared)) : 0;
+            float width = sw[i] * PageMesh.STROKE_WIDTH_SCALE;
+            width = width < PageMesh.MIN_STROKE_WIDTH ? PageMesh.MIN_STROKE_WIDTH : width;
+
+            x1[j] = ax;
+            y1[j] = ay;
+            x2[j] = bx;
+            y2[j] = by;
+            normalX[j] = -dy * inverseLength;
+            normalY[j] = dx * inverseLength;
+            halfWidth[j] = width / 2;
+        }
+    }
+
+    /**
+     * Emits the vertices where the previous segment meets the next one.
+     */
+    private void join(float x, float y, float normalX, float normalY, float halfWidth) {
+        float miterX = mNormalX + normalX;
+        float miterY = mNormalY + normalY;
+        float miterLengthSquared = miterX * miterX + miterY * miterY;
+        if (miterLengthSquared < MIN_MITER_LENGTH_SQUARED) {
+            // Sharp turn, end the previous segment and start the next one at the same point.
+            pair(x, y, mNormalX, mNormalY, mHalfWidth);
+            pair(x, y, normalX, normalY, halfWidth);
+        } else {
+            // The miter offset is the sum of the normals scaled to half width / cos(turn / 2).
+            float scale = 2 / miterLengthSquared;
+            pair(x, y, miterX * scale, miterY * scale, (mHalfWidth + halfWidth) / 2);
+        }
+    }
+
+    private void beginStrip() {
+        mStripVertices = 0;
+        mLinkPending = mVertexCount > mChunkStart;
+    }
+
+    /**
+     * Emits the left and right vertex of a point of the strip, starting a new chunk first when
+     * they would not fit in the current one.
+     */
+    private void pair(float x, float y, float offsetX, float offsetY, float halfWidth) {
+        if (mChunkPending || mVertexCount - mChunkStart + 2 > PageMesh.MAX_CHUNK_VERTICES) {
+            beginChunk();
+        }
+        mLeftX = x + offsetX * halfWidth;
+        mLeftY = y + offsetY * halfWidth;
+        mRightX = x - offsetX * halfWidth;
+        mRightY = y - offsetY * halfWidth;
+        vertex(mLeftX, mLeftY);
+        vertex(mRightX, mRightY);
+    }
+
+    private void beginChunk() {
+        if (mChunkFirstVertex != null) {
+            mChunkFirstVertex[mChunkBase + mChunkCount] = mVertexBase + mVertexCount;
+            mChunkFirstIndex[mChunkBase + mChunkCount] = mIndexBase + mIndexCount;
+        }
+        mChunkCount++;
+        mChunkPending = false;
+        mChunkStart = mVertexCount;
+        mLinkPending = false;
+        if (mStripVertices > 0) {
+            // Continue the strip in the new chunk from the last pair.
+            vertex(mLeftX, mLeftY);
+            vertex(mRightX, mRightY);
+        }
+    }
+
+    private void vertex(float x, float y) {
+        int index = mVertexCount - mChunkStart;
+        if (mLinkPending) {
+            // Repeat the last vertex of the previous strip and the first of this one.
+            index(mLastIndex);
+            index(index);
+            mLinkPending = false;
+        }
+        index(index);
+        mLastIndex = index;
+        mStripVertices++;
+        mVertexCount++;
+
+        if (mPositions == null) {
+            if (x < mMinX) mMinX = x;
+            if (x > mMaxX) mMaxX = x;
+            if (y < mMinY) mMinY = y;
+            if (y > mMaxY) mMaxY = y;
+            return;
+        }
+        int o = mStagedVertices * COORDS_PER_VERTEX;
+        mPositionStaging[o] = PageMesh.quantize((x - mOrigin[0]) * mInverseScale[0]);
+        mPositionStaging[o + 1] = PageMesh.quantize((y - mOrigin[1]) * mInverseScale[1]);
+        if (++mStagedVertices == STAGING_VERTICES) flushVertices();
+    }
+
+    private void index(int index) {
+        mIndexCount++;
+        if (mIndices == null) return;
+        mIndexStaging[mStagedIndices] = (short) index;
+        if (++mStagedIndices == STAGING_INDICES) flushIndices();
+    }
+
+    private void flushVertices() {
+        mPositions.put(mPositionStaging, 0, mStagedVertices * COORDS_PER_VERTEX);
+        mStagedVertices = 0;
+    }
+
+    private void flushIndices() {
+        mIndices.put(mIndexStaging, 0, mStagedIndices);
+        mStagedIndices = 0;
+    }
+
+    private static ShortBuffer sliceShorts(ByteBuffer buffer, int offset, int shortCount) {
+        return slice(buffer, offset, shortCount * 2).asShortBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Runs tasks and waits for all of them. In parallel they run on the shared pool, with the
+     * calling thread taking the first one.
+     */
+    private static void runAll(List<Runnable> tasks, boolean parallel) {
+        if (!parallel || tasks.size() < 2) {
+            for (Runnable task : tasks) {
+                task.run();
+            }
+            return;
+        }
+
+        ExecutorService executor = getExecutor();
+        List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size() - 1);
+        for (int i = 1; i < tasks.size(); i++) {
+            futures.add(executor.submit(tasks.get(i)));
+        }
+        boolean interrupted = false;
+        try {
+            tasks.get(0).run();
+            for (Future<?> future : futures) {
+                // The tasks are short and write into buffers owned by the caller, so they are
+                // always waited for, even when interrupted.
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof Error) throw (Error) cause;
+                        throw (RuntimeException) cause;
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (sExecutor == null) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            sExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                private final AtomicInteger mCount = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable,
+                            "StrokeMeshBuilder-" + mCount.incrementAndGet());
+                    // Maps to the background priority of the page loader threads on Android.
+                    thread.setPriority(Thread.NORM_PRIORITY - 1);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+
+    private static StrokeMeshBuilder obtain() {
+        synchronized (sPool) {
+            StrokeMeshBuilder builder = sPool.poll();
+            if (builder != null) return builder;
+        }
+        return new StrokeMeshBuilder();
+    }
+
+    private static void recycle(StrokeMeshBuilder builder) {
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOLED) {
+                sPool.push(builder);
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*******************************************************************************
+ Copyright © 2014 Kent Displays, Inc.
+
+ Permission is hereby granted, free of charge, to any person obtaining a copy
+ of this software and associated documentation files (the "Software"), to deal
+ in the Software without restriction, including without limitation the rights
+ to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ copies of the Software, and to permit persons to whom the Software is
+ furnished to do so, subject to the following conditions:
+
+ The above copyright notice and this permission notice shall be included in
+ all copies or substantial portions of the Software.
+
+ THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ THE SOFTWARE.
+ ******************************************************************************/
+
+
+package com.kentdisplays.synccardboarddemo;
+
+import android.opengl.GLES20;
+
+/**
+ * Layout of the interleaved vertices of a {@link PageMesh} and the shader attributes they feed.
+ */
+final class VertexFormat {
+
+    /**
+     * Tessellated triangle strips, see {@link StrokeMeshBuilder}. Each vertex is a position
+     * quantized to normalized shorts.
+     */
+    static final VertexFormat STRIPS = new VertexFormat(0, GLES20.GL_TRIANGLE_STRIP, 4,
+            new String[] {"a_Position"},
+            new int[] {2},
+            new int[] {GLES20.GL_SHORT},
+            new boolean[] {true},
+            new int[] {0});
+
+    /**
+     * Segments expanded into quads by the vertex shader, see {@link SegmentMeshBuilder}. Each of
+     * the 4 corners of a segment holds both quantized end points, the width in digitizer units and
+     * the number of the corner.
+     */
+    static final VertexFormat SEGMENTS = new VertexFormat(1, GLES20.GL_TRIANGLES, 12,
+            new String[] {"a_Segment", "a_Corner"},
+            new int[] {4, 2},
+            new int[] {GLES20.GL_SHORT, GLES20.GL_SHORT},
+            new boolean[] {true, false},
+            new int[] {0, 8});
+
+    final int id;
+    final int primitive;
+    // Partial draws must use a multiple of this many indices.
+    final int primitiveMultiple;
+    final int stride;
+
+    private final String[] mNames;
+    private final int[] mSizes;
+    private final int[] mTypes;
+    private final boolean[] mNormalized;
+    private final int[] mOffsets;
+
+    private VertexFormat(int id, int primitive, int stride, String[] names, int[] sizes,
+                         int[] types, boolean[] normalized, int[] offsets) {
+        this.id = id;
+        this.primitive = primitive;
+        this.primitiveMultiple = primitive == GLES20.GL_TRIANGLES ? 3 : 1;
+        this.stride = stride;
+        mNames = names;
+        mSizes = sizes;
+        mTypes = types;
+        mNormalized = normalized;
+        mOffsets = offsets;
+    }
+
+    /**
+     * Returns the format with the given {@link #id}, or null if there is none.
+     */
+    static VertexFormat forId(int id) {
+        if (id == STRIPS.id) return STRIPS;
+        if (id == SEGMENTS.id) return SEGMENTS;
+        return null;
+    }
+
+    int getAttributeCount() {
+        return mNames.length;
+    }
+
+    /**
+     * Looks up the locations of the attributes in a program.
+     */
+    void getAttributeLocations(ShaderProgram program, int[] locations) {
+        for (int i = 0; i < mNames.length; i++) {
+            locations[i] = program.getAttribute(mNames[i]);
+        }
+    }
+
+    void enable(int[] locations) {
+        for (int i = 0; i < mNames.length; i++) {
+            GLES20.glEnableVertexAttribArray(locations[i]);
+        }
+    }
+
+    void disable(int[] locations) {
+        for (int i = 0; i < mNames.length; i++) {
+            GLES20.glDisableVertexAttribArray(locations[i]);
+        }
+    }
+
+    /**
+     * Points the attributes at the vertices in the bound array buffer, starting at a vertex.
+     */
+    void setPointers(int[] locations, int firstVertex) {
+        int base = firstVertex * stride;
+        for (int i = 0; i < mNames.length; i++) {
+            GLES20.glVertexAttribPointer(locations[i], mSizes[i], mTypes[i], mNormalized[i],
+                    stride, base + mOffsets[i]);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+precision mediump float;
+uniform float u_Reveal;
+varying vec4 v_Color;
+varying float v_Order;
+
+void main() {
+    // Strokes appear in the order they were drawn on the page.
+    if (v_Order > u_Reveal) {
+        discard;
+    }
+    gl_FragColor = v_Color;
+}
@@ -0,0 +1,28 @@
+uniform mat4 u_Models[4];
+uniform mat4 u_View;
+uniform mat4 u_Projection;
+uniform vec3 u_LightPos;
+attribute vec4 a_Position;
+attribute float a_Page;
+attribute float a_Order;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;
+varying vec4 v_Color;
+varying float v_Order;
+
+void main()
+{
+   // Every vertex carries the slot of its page, which picks the model matrix.
+   mat4 model = u_Models[int(a_Page)];
+
+   vec4 modelViewPosition = u_View * (model * a_Position);
+   vec3 modelViewVertex = vec3(modelViewPosition);
+   vec3 modelViewNormal = vec3(u_View * (model * vec4(a_Normal, 0.0)));
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5   );
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = a_Color * diffuse;
+   v_Order = a_Order;
+   gl_Position = u_Projection * modelViewPosition;
+}
@@ -0,0 +1,48 @@
+uniform mat4 u_MVP;
+uniform mat4 u_MVMatrix;
+uniform mat4 u_Model;
+uniform vec3 u_LightPos;
+uniform float u_IsFloor;
+uniform vec4 u_Dequantization;
+uniform float u_WidthScale;
+uniform float u_MinWidth;
+attribute vec4 a_Segment;
+// Width of the segment in digitizer units and the number of the corner.
+attribute vec2 a_Corner;
+attribute vec4 a_Color;
+attribute vec3 a_Normal;
+varying vec4 v_Color;
+varying vec3 v_Grid;
+varying float v_isFloor;
+
+void main()
+{
+   // Both end points of the segment in page coordinates.
+   vec2 start = u_Dequantization.xy + a_Segment.xy * u_Dequantization.zw;
+   vec2 end = u_Dequantization.xy + a_Segment.zw * u_Dequantization.zw;
+
+   // Corners 0 and 1 are on one side of the segment, 2 and 3 on the other, even corners are at
+   // the start and odd corners at the end.
+   float along = mod(a_Corner.y, 2.0);
+   float across = step(1.5, a_Corner.y) * 2.0 - 1.0;
+
+   vec2 direction = end - start;
+   vec2 normal = vec2(-direction.y, direction.x)
+           * inversesqrt(max(dot(direction, direction), 1e-12));
+   float halfWidth = max(a_Corner.x * u_WidthScale, u_MinWidth) * 0.5;
+   vec4 position = vec4(mix(start, end, along) + normal * (across * halfWidth), 1.0, 1.0);
+
+   vec3 modelVertex = vec3(u_Model * position);
+   v_Grid = modelVertex;
+
+   vec3 modelViewVertex = vec3(u_MVMatrix * position);
+   vec3 modelViewNormal = vec3(u_MVMatrix * vec4(a_Normal, 0.0));
+   float distance = length(u_LightPos - modelViewVertex);
+   vec3 lightVector = normalize(u_LightPos - modelViewVertex);
+   float diffuse = max(dot(modelViewNormal, lightVector), 0.5   );
+   diffuse = diffuse * (1.0 / (1.0 + (0.00001 * distance * distance)));
+   v_Color = a_Color * diffuse;
+   gl_Position = u_MVP * position;
+
+   v_isFloor = u_IsFloor;
+}